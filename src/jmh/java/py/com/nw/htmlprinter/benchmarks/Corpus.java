@@ -0,0 +1,84 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Networkers SRL.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package py.com.nw.htmlprinter.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import py.com.nw.htmlprinter.PrinterConfiguration;
+
+/**
+ * The documents used by the benchmarks, loaded from the corpus resources.
+ * @author abiliomp
+ */
+public class Corpus {
+    
+    /**
+     * An 80 mm receipt, a one page A4 invoice and a multi-page A4 report.
+     */
+    public static final String RECEIPT = "receipt";
+    public static final String INVOICE = "invoice";
+    public static final String REPORT = "report";
+    
+    private Corpus(){}
+    
+    /**
+     * Reads a corpus document.
+     * @param name the document name.
+     * @return the HTML document.
+     */
+    public static String Load(String name){
+        try (InputStream in = Corpus.class.getResourceAsStream("/corpus/" + name + ".html")) {
+            if(in == null){
+                throw new IllegalArgumentException("Unknown corpus document: " + name);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while((read = in.read(buffer)) > 0){
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+    
+    /**
+     * Creates a printer configuration with the paper the document is meant for.
+     * @param name the document name.
+     * @return the printer configuration.
+     */
+    public static PrinterConfiguration Printer(String name){
+        PrinterConfiguration pc = new PrinterConfiguration("Benchmark");
+        if(RECEIPT.equals(name)){
+            pc.setPaperWidth(72);
+            pc.setPaperHeight(200);
+        }
+        return pc;
+    }
+    
+}
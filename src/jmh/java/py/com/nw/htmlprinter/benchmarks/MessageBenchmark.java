@@ -0,0 +1,79 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Networkers SRL.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package py.com.nw.htmlprinter.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import py.com.nw.htmlprinter.PrintRequestMessage;
+import py.com.nw.htmlprinter.PrintResponseMessage;
+
+/**
+ * Decoding of the websocket requests and encoding of the responses.
+ * @author abiliomp
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageBenchmark {
+    
+    @Param({Corpus.RECEIPT, Corpus.INVOICE, Corpus.REPORT})
+    public String document;
+    
+    private String request;
+    private PrintResponseMessage response;
+    
+    @Setup
+    public void setup(){
+        PrintRequestMessage prm = new PrintRequestMessage(Corpus.Load(document));
+        prm.setPrinterId("APrinter");
+        prm.setCharset("UTF-8");
+        request = prm.toJson();
+        response = new PrintResponseMessage(PrintResponseMessage.PRINTER_STATUS_BUSY, PrintResponseMessage.REQUEST_STATUS_RECEIVED, "Request received and queued.");
+        response.setQueuePosition(2);
+    }
+    
+    @Benchmark
+    public PrintRequestMessage decodeRequest(){
+        return PrintRequestMessage.fromJson(request);
+    }
+    
+    @Benchmark
+    public String encodeResponse(){
+        return response.toJson();
+    }
+    
+}
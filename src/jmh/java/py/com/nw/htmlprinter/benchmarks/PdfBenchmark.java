@@ -0,0 +1,112 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Networkers SRL.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package py.com.nw.htmlprinter.benchmarks;
+
+import com.itextpdf.kernel.pdf.PdfWriter;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.print.PageFormat;
+import java.awt.print.Printable;
+import java.awt.print.PrinterException;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.printing.PDFPageable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import py.com.nw.htmlprinter.PdfBuffer;
+
+/**
+ * Loading of the rendered PDF documents and the drawing of their pages through {@link PDFPageable},
+ * as done when printing with Java2D, into a thermal printer sized bitmap (203 dpi).
+ * @author abiliomp
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PdfBenchmark {
+    
+    private static final double DPI = 203;
+    
+    @Param({Corpus.RECEIPT, Corpus.INVOICE, Corpus.REPORT})
+    public String document;
+    
+    private PdfBuffer content;
+    private PDDocument loaded;
+    private PDFPageable pageable;
+    
+    @Setup
+    public void setup() throws IOException{
+        content = new PdfBuffer(64 * 1024);
+        Corpus.Printer(document).getRenderProfile().render(Corpus.Load(document), "UTF-8", new PdfWriter(content));
+        loaded = content.load();
+        pageable = new PDFPageable(loaded);
+    }
+    
+    @TearDown
+    public void tearDown() throws IOException{
+        loaded.close();
+    }
+    
+    @Benchmark
+    public int load() throws IOException{
+        try (PDDocument pdf = content.load()) {
+            return pdf.getNumberOfPages();
+        }
+    }
+    
+    @Benchmark
+    public BufferedImage rasterize() throws PrinterException{
+        BufferedImage image = null;
+        for(int i = 0; i < pageable.getNumberOfPages(); i++){
+            PageFormat pf = pageable.getPageFormat(i);
+            Printable printable = pageable.getPrintable(i);
+            double scale = DPI / 72;
+            image = new BufferedImage((int) Math.ceil(pf.getWidth() * scale), (int) Math.ceil(pf.getHeight() * scale), BufferedImage.TYPE_BYTE_BINARY);
+            Graphics2D g = image.createGraphics();
+            try{
+                g.scale(scale, scale);
+                printable.print(g, pf, i);
+            }
+            finally{
+                g.dispose();
+            }
+        }
+        return image;
+    }
+    
+}
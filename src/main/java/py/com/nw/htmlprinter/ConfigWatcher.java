@@ -0,0 +1,133 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Networkers SRL.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package py.com.nw.htmlprinter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches the configuration file and reloads the configuration when the file changes.
+ * <p>
+ * The reload runs in the watcher thread and replaces the configuration snapshot at once, so
+ * the requests being processed are never paused.
+ * @author abiliomp
+ */
+public class ConfigWatcher {
+    
+    private static final Logger LOG = LoggerFactory.getLogger(ConfigWatcher.class);
+    
+    /**
+     * Time to wait for more changes before reloading, since editors usually write a file in several steps.
+     */
+    private static final long SETTLE_TIME = 500;
+    
+    private static WatchService Watcher = null;
+    
+    private ConfigWatcher(){}
+    
+    /**
+     * Starts watching the configuration file.
+     * @param configFile the configuration file.
+     */
+    public static synchronized void Start(File configFile){
+        if(Watcher != null){
+            return;
+        }
+        Path file = configFile.getAbsoluteFile().toPath();
+        Path dir = file.getParent();
+        try {
+            Watcher = FileSystems.getDefault().newWatchService();
+            dir.register(Watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException ex) {
+            LOG.error("The config file can not be watched: {}", ex.getLocalizedMessage());
+            Stop();
+            return;
+        }
+        WatchService watcher = Watcher;
+        Thread t = new Thread(() -> Watch(watcher, file.getFileName()));
+        t.setName("ConfigWatcher");
+        t.setDaemon(true);
+        t.start();
+        LOG.info("Watching {} for changes.", file);
+    }
+    
+    /**
+     * Stops watching the configuration file.
+     */
+    public static synchronized void Stop(){
+        if(Watcher != null){
+            try {
+                Watcher.close();
+            } catch (IOException ex) {
+                LOG.error(ex.getLocalizedMessage());
+            }
+            Watcher = null;
+        }
+    }
+    
+    private static void Watch(WatchService watcher, Path fileName){
+        try{
+            while(true){
+                WatchKey key = watcher.take();
+                boolean changed = Matches(key, fileName);
+                // Let the writes settle and merge the changes made in the meantime
+                while(changed && (key = watcher.poll(SETTLE_TIME, TimeUnit.MILLISECONDS)) != null){
+                    Matches(key, fileName);
+                }
+                if(changed){
+                    Configuration.ReloadConfiguration();
+                }
+            }
+        }
+        catch(InterruptedException | ClosedWatchServiceException ex){
+            // Stopped
+        }
+    }
+    
+    /**
+     * Consumes the events of a watch key and resets it.
+     * @return true if any of the events is about the watched file.
+     */
+    private static boolean Matches(WatchKey key, Path fileName){
+        boolean matches = false;
+        for(WatchEvent<?> event : key.pollEvents()){
+            if(fileName.equals(event.context())){
+                matches = true;
+            }
+        }
+        key.reset();
+        return matches;
+    }
+    
+}
@@ -26,66 +26,76 @@ package py.com.nw.htmlprinter;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.JAXBException;
-import javax.xml.bind.Marshaller;
-import javax.xml.bind.Unmarshaller;
-import javax.xml.bind.annotation.XmlAccessType;
-import javax.xml.bind.annotation.XmlAccessorType;
-import javax.xml.bind.annotation.XmlRootElement;
-import javax.xml.bind.annotation.XmlTransient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * <p>
  * This is the configuration class for the HTMLPrinter program. It holds the basic parameters to setup the printing environment.
  * <p>
- * It is XML serializable and implements the basic file I/O operations out of the box.
+ * It is XML serializable and implements the basic file I/O operations out of the box, through {@link ConfigurationFile}.
  * <p>
- * There is only one static instance through which the parameters can be retrieved.
+ * There is only one static instance through which the parameters can be retrieved. The instance is an
+ * immutable snapshot: changes and reloads build a new instance that replaces the current one at once,
+ * so the request threads always read a consistent configuration without locking.
  * <p>
  * @author abiliomp
  */
-@XmlRootElement
-@XmlAccessorType(XmlAccessType.FIELD)
 public class Configuration {
     
+    private static final Logger LOG = LoggerFactory.getLogger(Configuration.class);
+    
     /**
      * A constant that holds the default configuration file name.
      */
-    @XmlTransient
     private static final String FILENAME = "HTMLPrinterConfig.xml";
     
+    /**
+     * The extension added to the configuration file path to name its binary snapshot.
+     */
+    private static final String SNAPSHOT_EXTENSION = ".cache";
+    
     /**
      * Constant that stores the convertion rate from user space to milimeters.
      */
-    @XmlTransient
     private static final double DOTS_PER_MM = 25.4/72.0;
     
     /**
      * The custom file path, used in case it is specified at runtime.
      */
-    @XmlTransient
     private static String CustomFilePath = null;
     
     /**
      * The configuration static instance that stores the retrieved config parameters.
+     * It is never modified once published, it is replaced.
      */
-    @XmlTransient
-    private static Configuration Config;
+    private static volatile Configuration Config;
     
     /*
     * Stores the configuration of each individual printer configured on this instance.
     * The key value is a string to be specified at the configuration file.
+    * Only changed before the instance is published, the printers are frozen when published.
     */
-    public HashMap<String, PrinterConfiguration> printers;    
+    private final HashMap<String, PrinterConfiguration> printers;
+    
+    /*
+    * Stores the file paths of the HTML templates available to the websocket clients.
+    * The key value is the template id used in the template print requests.
+    * Only changed before the instance is published.
+    */
+    private final HashMap<String, String> templates;
     
     /**
      * Specifies whenever to run the deamon service or not.
@@ -101,6 +111,140 @@ public class Configuration {
      */
     private int webSocketPort = 3333;
     
+    /**
+     * The number of worker threads that decode the print requests and render their PDF content (render stage).
+     * A value of 0 or less uses the number of available processors.
+     * XML serialized parameter
+     */
+    private int workerThreads = 0;
+    
+    /**
+     * The maximum number of print requests waiting for a free worker thread.
+     * Requests received while this queue is full are rejected as busy.
+     * XML serialized parameter
+     */
+    private int workerQueueSize = 64;
+    
+    /**
+     * The number of threads that send the rendered documents to the printers (spool stage).
+     * Jobs of the same printer are always spooled one at a time.
+     * XML serialized parameter
+     */
+    private int spoolThreads = 4;
+    
+    /**
+     * The maximum number of jobs accepted per printer that are waiting to be spooled.
+     * Requests received while the printer queue is full are rejected as busy.
+     * XML serialized parameter
+     */
+    private int spoolQueueSize = 32;
+    
+    /**
+     * The maximum size in bytes of the rendered documents kept in memory for reprinting.
+     * A value of 0 disables the memory cache.
+     * XML serialized parameter
+     */
+    private long renderCacheSize = 32 * 1024 * 1024;
+    
+    /**
+     * The folder where rendered documents are stored as a second cache tier.
+     * Default null, which disables the disk cache.
+     * XML serialized parameter
+     */
+    private String renderCacheDir = null;
+    
+    /**
+     * The maximum size in bytes of the rendered documents kept in the disk cache folder.
+     * The least recently used documents are deleted when it is exceeded. A value of 0 removes the limit.
+     * XML serialized parameter
+     */
+    private long renderCacheDirSize = 256 * 1024 * 1024;
+    
+    /**
+     * The time in seconds between refreshes of the operating system printers known by the service.
+     * A value of 0 disables the background refresh. Printers not found still cause a refresh.
+     * XML serialized parameter
+     */
+    private int printerRefreshInterval = 60;
+    
+    /**
+     * The time in milliseconds between polls of the printers status.
+     * XML serialized parameter
+     */
+    private long statusPollInterval = 2000;
+    
+    /**
+     * Whether to keep a binary snapshot of this file (same path plus ".cache") to speed up the next starts.
+     * The snapshot is discarded whenever this file changes.
+     * XML serialized parameter
+     */
+    private boolean configCache = false;
+    
+    /**
+     * The number of times each printer renders the sample documents before the service starts.
+     * A value of 0 disables the warm-up.
+     * XML serialized parameter
+     */
+    private int warmupIterations = 0;
+    
+    /**
+     * The number of simulated printers, named "Simulated-1", "Simulated-2" and so on, offered as
+     * print services besides the operating system ones. Used for load tests without real printers.
+     * XML serialized parameter
+     */
+    private int simulatedPrinters = 0;
+    
+    /**
+     * The time in milliseconds a simulated printer takes to print each page.
+     * XML serialized parameter
+     */
+    private long simulatedPrintDelay = 100;
+    
+    /**
+     * Logs one of every this many debug messages of the request path, when debug logging is enabled.
+     * A value of 1 logs all of them.
+     * XML serialized parameter
+     */
+    private int debugLogSampling = 10;
+    
+    /**
+     * The path of the job journal, where the print jobs are recorded so the pending ones are
+     * printed again after a restart. Null disables the journal.
+     * XML serialized parameter
+     */
+    private String journalFile = null;
+    
+    /**
+     * The size in bytes of the journal file that triggers its compaction.
+     * XML serialized parameter
+     */
+    private long journalMaxSize = 16 * 1024 * 1024;
+    
+    /**
+     * The time in milliseconds between flushes of the journal to disk. The jobs recorded in this
+     * interval are lost if the system crashes.
+     * XML serialized parameter
+     */
+    private long journalSyncInterval = 10;
+    
+    /**
+     * The time in milliseconds to wait for a print service to report the end of a job. After
+     * it, the job is considered done if its data was sent to the printer, and failed otherwise.
+     * A value of 0 waits forever.
+     * XML serialized parameter
+     */
+    private long printCompletionTimeout = 120000;
+    
+    /**
+     * Read only view of the printers, computed when the instance is published.
+     */
+    private Map<String, PrinterConfiguration> printerView;
+    
+    /**
+     * The default printer id, computed when the instance is published.
+     */
+    private String defaultPrinterId;
+    
     ////////////////////////////////////////////////////////////////////////////
     
     /**
@@ -108,6 +252,78 @@ public class Configuration {
      */
     private Configuration() {
         printers = new HashMap<>();
+        templates = new HashMap<>();
+    }
+    
+    /**
+     * Copy constructor used to modify the configuration without changing the published instance.
+     * The printer configurations are shared, only the maps are copied.
+     * @param other the configuration to be copied.
+     */
+    private Configuration(Configuration other) {
+        printers = new HashMap<>(other.printers);
+        templates = new HashMap<>(other.templates);
+        runAsService = other.runAsService;
+        webSocketPort = other.webSocketPort;
+        workerThreads = other.workerThreads;
+        workerQueueSize = other.workerQueueSize;
+        spoolThreads = other.spoolThreads;
+        spoolQueueSize = other.spoolQueueSize;
+        renderCacheSize = other.renderCacheSize;
+        renderCacheDir = other.renderCacheDir;
+        renderCacheDirSize = other.renderCacheDirSize;
+        printerRefreshInterval = other.printerRefreshInterval;
+        statusPollInterval = other.statusPollInterval;
+        configCache = other.configCache;
+        warmupIterations = other.warmupIterations;
+        simulatedPrinters = other.simulatedPrinters;
+        simulatedPrintDelay = other.simulatedPrintDelay;
+        debugLogSampling = other.debugLogSampling;
+        journalFile = other.journalFile;
+        journalMaxSize = other.journalMaxSize;
+        journalSyncInterval = other.journalSyncInterval;
+        printCompletionTimeout = other.printCompletionTimeout;
+    }
+    
+    /**
+     * Computes the derived values and makes the instance the current configuration.
+     * @param config the new configuration.
+     */
+    private static void Publish(Configuration config){
+        for(PrinterConfiguration pc : config.printers.values()){
+            pc.freeze();
+        }
+        config.printerView = Collections.unmodifiableMap(config.printers);
+        config.defaultPrinterId = FindDefaultPrinterId(config.printers);
+        Config = config;
+    }
+    
+    /**
+     * Applies a change to a copy of the current configuration and publishes the copy.
+     * @param change the change to be applied.
+     */
+    private static synchronized void Update(Consumer<Configuration> change){
+        Configuration next = new Configuration(Config);
+        change.accept(next);
+        Publish(next);
+    }
+    
+    private static String FindDefaultPrinterId(Map<String, PrinterConfiguration> printers){
+        if(printers.isEmpty()){
+            return null;
+        }
+        else if(printers.size() == 1){
+            return printers.keySet().iterator().next();
+        }
+        else{
+            List<String> lpc = printers.entrySet().stream().filter(e -> e.getValue().isDefault()).map(e -> e.getKey()).collect(Collectors.toList());
+            if(lpc != null && lpc.size() > 0){
+                return lpc.get(0);
+            }
+            else{
+                return printers.keySet().iterator().next();
+            }
+        }
     }
 
     ////////////////////////////////////////////////////////////////////////////
@@ -126,28 +342,112 @@ public class Configuration {
         return Config.webSocketPort;
     }
     
+    public static int GetWorkerThreads() {
+        if(Config.workerThreads <= 0){
+            return Runtime.getRuntime().availableProcessors();
+        }
+        return Config.workerThreads;
+    }
+
+    public static int GetWorkerQueueSize() {
+        return Math.max(1, Config.workerQueueSize);
+    }
+    
+    public static int GetSpoolThreads() {
+        return Math.max(1, Config.spoolThreads);
+    }
+
+    public static int GetSpoolQueueSize() {
+        return Math.max(1, Config.spoolQueueSize);
+    }
+    
+    public static long GetRenderCacheSize() {
+        return Config.renderCacheSize;
+    }
+
+    public static String GetRenderCacheDir() {
+        return Config.renderCacheDir;
+    }
+
+    public static long GetRenderCacheDirSize() {
+        return Config.renderCacheDirSize;
+    }
+    
+    public static int GetPrinterRefreshInterval() {
+        return Config.printerRefreshInterval;
+    }
+    
+    public static long GetStatusPollInterval() {
+        return Config.statusPollInterval;
+    }
+    
+    public static int GetWarmupIterations() {
+        return Config.warmupIterations;
+    }
+    
+    public static int GetSimulatedPrinters() {
+        return Config.simulatedPrinters;
+    }
+    
+    public static long GetSimulatedPrintDelay() {
+        return Config.simulatedPrintDelay;
+    }
+    
+    public static int GetDebugLogSampling() {
+        return Config.debugLogSampling;
+    }
+    
+    public static String GetJournalFile() {
+        return Config.journalFile;
+    }
+    
+    public static long GetJournalMaxSize() {
+        return Config.journalMaxSize;
+    }
+    
+    public static long GetJournalSyncInterval() {
+        return Config.journalSyncInterval;
+    }
+    
+    public static long GetPrintCompletionTimeout() {
+        return Config.printCompletionTimeout;
+    }
+    
+    /**
+     * Retrieves all the configured printers.
+     * @return a read only map of the printer configurations by printer id.
+     */
+    public static Map<String, PrinterConfiguration> GetPrinters(){
+        return Config.printerView;
+    }
+    
     public static PrinterConfiguration GetPrinter(String printerId){
         return Config.printers.get(printerId);
     }
     
-    public static PrinterConfiguration GetDefaultPrinter(){
-        if(Config.printers.isEmpty()){
-            return null;
-        }
-        else if(Config.printers.size() == 1){
-            return Config.printers.values().iterator().next();
-        }
-        else{
-            List<PrinterConfiguration> lpc = Config.printers.values().stream().filter(pc -> pc.isDefault()).collect(Collectors.toList());
-            if(lpc != null && lpc.size() > 0){
-                return lpc.get(0);
-            }
-            else{
-                return Config.printers.values().iterator().next();
-            }
+    /**
+     * Builds the render profiles of all the configured printers. The CLI builds only the profile
+     * of the printer it uses, when it is needed, but the service builds them all before taking requests.
+     */
+    public static void BuildRenderProfiles(){
+        for(PrinterConfiguration pc : Config.printers.values()){
+            pc.buildRenderProfile();
         }
     }
     
+    public static PrinterConfiguration GetDefaultPrinter(){
+        Configuration config = Config;
+        return config.defaultPrinterId == null ? null : config.printers.get(config.defaultPrinterId);
+    }
+    
+    /**
+     * Retrieves the id of the printer to be used when no printer is specified.
+     * @return the default printer id or null if there are no printers configured.
+     */
+    public static String GetDefaultPrinterId(){
+        return Config.defaultPrinterId;
+    }
+    
     ////////////////////////////////////////////////////////////////////////////
     
     /**
@@ -159,15 +459,89 @@ public class Configuration {
     }
 
     public static void SetRunAsService(boolean runAsService) {
-        Config.runAsService = runAsService;
+        Update(c -> c.runAsService = runAsService);
     }
 
     public static void SetWebSocketPort(int webSocketPort) {
-        Config.webSocketPort = webSocketPort;
+        Update(c -> c.webSocketPort = webSocketPort);
+    }
+    
+    public static void SetWorkerThreads(int workerThreads) {
+        Update(c -> c.workerThreads = workerThreads);
+    }
+
+    public static void SetWorkerQueueSize(int workerQueueSize) {
+        Update(c -> c.workerQueueSize = workerQueueSize);
+    }
+    
+    public static void SetSpoolThreads(int spoolThreads) {
+        Update(c -> c.spoolThreads = spoolThreads);
+    }
+
+    public static void SetSpoolQueueSize(int spoolQueueSize) {
+        Update(c -> c.spoolQueueSize = spoolQueueSize);
+    }
+    
+    public static void SetRenderCacheSize(long renderCacheSize) {
+        Update(c -> c.renderCacheSize = renderCacheSize);
+    }
+
+    public static void SetRenderCacheDir(String renderCacheDir) {
+        Update(c -> c.renderCacheDir = renderCacheDir);
+    }
+
+    public static void SetRenderCacheDirSize(long renderCacheDirSize) {
+        Update(c -> c.renderCacheDirSize = renderCacheDirSize);
+    }
+    
+    public static void SetPrinterRefreshInterval(int printerRefreshInterval) {
+        Update(c -> c.printerRefreshInterval = printerRefreshInterval);
+    }
+    
+    public static void SetStatusPollInterval(long statusPollInterval) {
+        Update(c -> c.statusPollInterval = statusPollInterval);
+    }
+    
+    public static void SetWarmupIterations(int warmupIterations) {
+        Update(c -> c.warmupIterations = warmupIterations);
+    }
+    
+    public static void SetSimulatedPrinters(int simulatedPrinters) {
+        Update(c -> c.simulatedPrinters = simulatedPrinters);
+    }
+    
+    public static void SetSimulatedPrintDelay(long simulatedPrintDelay) {
+        Update(c -> c.simulatedPrintDelay = simulatedPrintDelay);
+    }
+    
+    public static void SetDebugLogSampling(int debugLogSampling) {
+        Update(c -> c.debugLogSampling = debugLogSampling);
+    }
+    
+    public static void SetJournalFile(String journalFile) {
+        Update(c -> c.journalFile = journalFile);
+    }
+    
+    public static void SetJournalMaxSize(long journalMaxSize) {
+        Update(c -> c.journalMaxSize = journalMaxSize);
     }
     
+    public static void SetJournalSyncInterval(long journalSyncInterval) {
+        Update(c -> c.journalSyncInterval = journalSyncInterval);
+    }
+    
+    public static void SetPrintCompletionTimeout(long printCompletionTimeout) {
+        Update(c -> c.printCompletionTimeout = printCompletionTimeout);
+    }
+    
+    /**
+     * Adds or replaces a printer. The printer configuration can not be changed afterwards, use
+     * {@link PrinterConfiguration#copy()} to change a configured printer and add the copy.
+     * @param printerId the printer id.
+     * @param pc the printer configuration.
+     */
     public static void AddPrinter(String printerId, PrinterConfiguration pc){
-        Config.printers.put(printerId, pc);
+        Update(c -> c.printers.put(printerId, pc));
     }
     
     ////////////////////////////////////////////////////////////////////////////
@@ -179,50 +553,241 @@ public class Configuration {
     }
     
     public static void Init() throws Exception{
-        Config = new Configuration();
+        Configuration config = new Configuration();
         PrinterConfiguration pc = new PrinterConfiguration("ExamplePrinter");
-        Config.printers.put("ExamplePrinter", pc);
+        config.printers.put("ExamplePrinter", pc);
+        Publish(config);
         SaveConfiguration();      
     }
     
-    public static void SaveConfiguration() throws JAXBException, Exception{
-        File file;
-        if(CustomFilePath == null)
-            file = new File(GetConfigFileURI());
-        else
-            file = new File(CustomFilePath);
-        JAXBContext jaxbContext = JAXBContext.newInstance(Configuration.class);
-        Marshaller jaxbMarshaller = jaxbContext.createMarshaller();
-        jaxbMarshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
-        jaxbMarshaller.marshal(Config, file);
+    public static void SaveConfiguration() throws Exception{
+        File file = GetConfigFile();
+        ConfigurationFile.Write(Config.toContent(), file);
     }
     
-    public static void ReadConfiguration() throws JAXBException, FileNotFoundException, URISyntaxException, UnsupportedEncodingException{
-        File file;
-        if(CustomFilePath == null)
-            file = new File(GetConfigFileURI());
-        else
-            file = new File(CustomFilePath);
+    public static void ReadConfiguration() throws IOException, URISyntaxException{
+        File file = GetConfigFile();
         if(!file.exists()){
             Config = null;
             throw new FileNotFoundException();
         }
-        JAXBContext jaxbContext = JAXBContext.newInstance(Configuration.class);
-        Unmarshaller jaxbUnmarshaller = jaxbContext.createUnmarshaller();
-        Config = (Configuration) jaxbUnmarshaller.unmarshal(file);
+        Configuration config = Load(file);
+        Publish(config);
+        TemplateRegistry.Load(config.templates);
+    }
+    
+    /**
+     * Lists the parameters that changed between two configurations and are only read when the
+     * service starts: the pool sizes, the polling intervals and the job journal.
+     * @param current the running configuration.
+     * @param next the new configuration.
+     * @return the names of the changed parameters.
+     */
+    private static List<String> RestartRequired(Configuration current, Configuration next){
+        List<String> names = new ArrayList<>();
+        if(current.workerThreads != next.workerThreads){
+            names.add("workerThreads");
+        }
+        if(current.workerQueueSize != next.workerQueueSize){
+            names.add("workerQueueSize");
+        }
+        if(current.spoolThreads != next.spoolThreads){
+            names.add("spoolThreads");
+        }
+        if(current.statusPollInterval != next.statusPollInterval){
+            names.add("statusPollInterval");
+        }
+        if(current.printerRefreshInterval != next.printerRefreshInterval){
+            names.add("printerRefreshInterval");
+        }
+        if(!Objects.equals(current.journalFile, next.journalFile) || current.journalMaxSize != next.journalMaxSize || current.journalSyncInterval != next.journalSyncInterval){
+            names.add("the job journal");
+        }
+        return names;
+    }
+    
+    /**
+     * Reads the configuration file again and replaces the current configuration. The values that can
+     * not change while the program runs (service mode and websocket port) are kept, and the jobs in
+     * progress finish with the configuration they started with. The values only read when the service
+     * starts (see {@link #RestartRequired(Configuration, Configuration)}) take effect after a restart.
+     * If the file can not be read the current configuration is kept.
+     * @return true if the new configuration was applied.
+     */
+    public static boolean ReloadConfiguration(){
+        try {
+            File file = GetConfigFile();
+            if(!file.exists()){
+                LOG.warn("Config file not found, keeping the current configuration.");
+                return false;
+            }
+            Configuration next = Load(file);
+            // Build the render profiles here, so the requests do not wait for them.
+            for(PrinterConfiguration pc : next.printers.values()){
+                pc.buildRenderProfile();
+            }
+            synchronized(Configuration.class){
+                Configuration current = Config;
+                if(current != null){
+                    if(current.webSocketPort != next.webSocketPort || current.runAsService != next.runAsService){
+                        LOG.info("Service mode and websocket port changes take effect after a restart.");
+                    }
+                    next.runAsService = current.runAsService;
+                    next.webSocketPort = current.webSocketPort;
+                    List<String> restart = RestartRequired(current, next);
+                    if(!restart.isEmpty()){
+                        LOG.info("Changes to {} take effect after a restart.", String.join(", ", restart));
+                    }
+                }
+                Publish(next);
+            }
+            TemplateRegistry.Load(next.templates);
+            LOG.info("Configuration reloaded. {} printer(s) configured.", next.printers.size());
+            return true;
+        } catch (IOException | URISyntaxException | RuntimeException ex) {
+            LOG.error("Config file could not be reloaded, keeping the current configuration: {}", ex.getLocalizedMessage() != null ? ex.getLocalizedMessage() : ex.toString());
+            return false;
+        }
+    }
+    
+    /**
+     * Reads a configuration file and sets it up, without publishing it.
+     * The binary snapshot is used instead of the file when it is up to date.
+     * @param file the configuration file.
+     * @return the new configuration.
+     */
+    private static Configuration Load(File file) throws IOException{
+        File snapshot = new File(file.getPath() + SNAPSHOT_EXTENSION);
+        ConfigurationFile.Content content = ConfigurationFile.ReadSnapshot(snapshot, file);
+        boolean fromSnapshot = content != null;
+        if(!fromSnapshot){
+            content = ConfigurationFile.Read(file);
+        }
+        Configuration config;
+        try{
+            config = FromContent(content);
+        }
+        catch(IllegalArgumentException ex){
+            throw new IOException(ex.getLocalizedMessage(), ex);
+        }
+        if(config.configCache && !fromSnapshot){
+            try{
+                ConfigurationFile.WriteSnapshot(content, snapshot, file);
+            }
+            catch(IOException ex){
+                LOG.warn("The config snapshot could not be written: {}", ex.getLocalizedMessage());
+            }
+        }
+        else if(!config.configCache && snapshot.exists()){
+            snapshot.delete();
+        }
+        return config;
+    }
+    
+    /**
+     * Creates a configuration from the values of a configuration file.
+     * @throws IllegalArgumentException if a value is not valid.
+     */
+    private static Configuration FromContent(ConfigurationFile.Content content){
+        Configuration config = new Configuration();
+        for(Map.Entry<String, Map<String, String>> printer : content.printers.entrySet()){
+            PrinterConfiguration pc = new PrinterConfiguration();
+            for(Map.Entry<String, String> value : printer.getValue().entrySet()){
+                pc.setValue(value.getKey(), value.getValue());
+            }
+            config.printers.put(printer.getKey(), pc);
+        }
+        config.templates.putAll(content.templates);
+        for(Map.Entry<String, String> value : content.values.entrySet()){
+            config.setValue(value.getKey(), value.getValue());
+        }
+        return config;
+    }
+    
+    /**
+     * Retrieves the values to be written to the configuration file.
+     */
+    private ConfigurationFile.Content toContent(){
+        ConfigurationFile.Content content = new ConfigurationFile.Content();
+        for(Map.Entry<String, PrinterConfiguration> printer : printers.entrySet()){
+            content.printers.put(printer.getKey(), printer.getValue().getValues());
+        }
+        content.templates.putAll(templates);
+        content.values.put("runAsService", Boolean.toString(runAsService));
+        content.values.put("webSocketPort", Integer.toString(webSocketPort));
+        content.values.put("workerThreads", Integer.toString(workerThreads));
+        content.values.put("workerQueueSize", Integer.toString(workerQueueSize));
+        content.values.put("spoolThreads", Integer.toString(spoolThreads));
+        content.values.put("spoolQueueSize", Integer.toString(spoolQueueSize));
+        content.values.put("renderCacheSize", Long.toString(renderCacheSize));
+        if(renderCacheDir != null){
+            content.values.put("renderCacheDir", renderCacheDir);
+        }
+        content.values.put("renderCacheDirSize", Long.toString(renderCacheDirSize));
+        content.values.put("printerRefreshInterval", Integer.toString(printerRefreshInterval));
+        content.values.put("statusPollInterval", Long.toString(statusPollInterval));
+        content.values.put("configCache", Boolean.toString(configCache));
+        content.values.put("warmupIterations", Integer.toString(warmupIterations));
+        content.values.put("simulatedPrinters", Integer.toString(simulatedPrinters));
+        content.values.put("simulatedPrintDelay", Long.toString(simulatedPrintDelay));
+        content.values.put("debugLogSampling", Integer.toString(debugLogSampling));
+        if(journalFile != null){
+            content.values.put("journalFile", journalFile);
+        }
+        content.values.put("journalMaxSize", Long.toString(journalMaxSize));
+        content.values.put("journalSyncInterval", Long.toString(journalSyncInterval));
+        content.values.put("printCompletionTimeout", Long.toString(printCompletionTimeout));
+        return content;
+    }
+    
+    /**
+     * Sets a parameter read from the configuration file. Unknown parameters are ignored.
+     * @throws IllegalArgumentException if the value is not valid for the parameter.
+     */
+    private void setValue(String name, String value){
+        switch(name){
+            case "runAsService": runAsService = ConfigurationFile.ParseBoolean(value); break;
+            case "webSocketPort": webSocketPort = ConfigurationFile.ParseInt(name, value); break;
+            case "workerThreads": workerThreads = ConfigurationFile.ParseInt(name, value); break;
+            case "workerQueueSize": workerQueueSize = ConfigurationFile.ParseInt(name, value); break;
+            case "spoolThreads": spoolThreads = ConfigurationFile.ParseInt(name, value); break;
+            case "spoolQueueSize": spoolQueueSize = ConfigurationFile.ParseInt(name, value); break;
+            case "renderCacheSize": renderCacheSize = ConfigurationFile.ParseLong(name, value); break;
+            case "renderCacheDir": renderCacheDir = value.trim(); break;
+            case "renderCacheDirSize": renderCacheDirSize = ConfigurationFile.ParseLong(name, value); break;
+            case "printerRefreshInterval": printerRefreshInterval = ConfigurationFile.ParseInt(name, value); break;
+            case "statusPollInterval": statusPollInterval = ConfigurationFile.ParseLong(name, value); break;
+            case "configCache": configCache = ConfigurationFile.ParseBoolean(value); break;
+            case "warmupIterations": warmupIterations = ConfigurationFile.ParseInt(name, value); break;
+            case "simulatedPrinters": simulatedPrinters = ConfigurationFile.ParseInt(name, value); break;
+            case "simulatedPrintDelay": simulatedPrintDelay = ConfigurationFile.ParseLong(name, value); break;
+            case "debugLogSampling": debugLogSampling = ConfigurationFile.ParseInt(name, value); break;
+            case "journalFile": journalFile = value.trim(); break;
+            case "journalMaxSize": journalMaxSize = ConfigurationFile.ParseLong(name, value); break;
+            case "journalSyncInterval": journalSyncInterval = ConfigurationFile.ParseLong(name, value); break;
+            case "printCompletionTimeout": printCompletionTimeout = ConfigurationFile.ParseLong(name, value); break;
+            default: break;
+        }
     }
     
     public static void DeleteConfigFile() throws URISyntaxException, UnsupportedEncodingException{
-        File file;
-        if(CustomFilePath == null)
-            file = new File(GetConfigFileURI());
-        else
-            file = new File(CustomFilePath);
+        File file = GetConfigFile();
         if(file.exists()){
            file.delete();
         }
     }
     
+    /**
+     * Retrieves the configuration file, either the custom one or the one in the program folder.
+     * @return the configuration file.
+     */
+    public static File GetConfigFile() throws URISyntaxException, UnsupportedEncodingException{
+        if(CustomFilePath == null)
+            return new File(GetConfigFileURI());
+        else
+            return new File(CustomFilePath);
+    }
+    
     public static File GetCurrentDir() throws URISyntaxException, UnsupportedEncodingException{        
         File file = new File(HTMLPrinter.class.getProtectionDomain().getCodeSource().getLocation().toURI());       
         File parent = file.getParentFile();
@@ -242,9 +807,7 @@ public class Configuration {
             try {
                 return GetConfigFileURI().toString();
             } catch (URISyntaxException | UnsupportedEncodingException ex) {
-                String errMsg = "[Configuration ERR] " + ex.getLocalizedMessage();
-                Logger.getLogger(Configuration.class.getName()).log(Level.SEVERE, null, errMsg);
-                System.err.println(errMsg);
+                LOG.error(ex.getLocalizedMessage());
             }
         }
         return "";
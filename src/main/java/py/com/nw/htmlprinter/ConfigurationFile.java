@@ -0,0 +1,380 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Networkers SRL.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package py.com.nw.htmlprinter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads and writes the XML configuration file, and its optional binary snapshot.
+ * <p>
+ * The file keeps the layout of the previous JAXB based versions: a {@code configuration} root
+ * element with the printers and templates maps written as {@code entry/key/value} elements,
+ * followed by one element per parameter. Unknown elements are ignored.
+ * <p>
+ * The binary snapshot stores the parsed values next to the XML file, so the next starts skip the
+ * XML parsing. It is only used while the XML file keeps the same size and modification time.
+ * @author abiliomp
+ */
+public class ConfigurationFile {
+    
+    private static final Logger LOG = LoggerFactory.getLogger(ConfigurationFile.class);
+    
+    private static final String ROOT = "configuration";
+    private static final String PRINTERS = "printers";
+    private static final String TEMPLATES = "templates";
+    private static final String ENTRY = "entry";
+    private static final String KEY = "key";
+    private static final String VALUE = "value";
+    
+    private static final int SNAPSHOT_MAGIC = 0x48504346;
+    private static final int SNAPSHOT_VERSION = 1;
+    
+    private ConfigurationFile(){}
+    
+    /**
+     * The values of a configuration file, by element name.
+     */
+    public static class Content {
+        
+        final Map<String, Map<String, String>> printers = new LinkedHashMap<>();
+        final Map<String, String> templates = new LinkedHashMap<>();
+        final Map<String, String> values = new LinkedHashMap<>();
+        
+    }
+    
+    /**
+     * Reads a configuration file.
+     * @param file the XML file.
+     * @return the configuration values.
+     * @throws IOException if the file can not be read or it is not a valid configuration file.
+     */
+    public static Content Read(File file) throws IOException{
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            XMLStreamReader reader = factory.createXMLStreamReader(in);
+            try {
+                Content content = new Content();
+                reader.nextTag();
+                if(!ROOT.equals(reader.getLocalName())){
+                    throw new IOException("Not a configuration file, the root element is " + reader.getLocalName() + ".");
+                }
+                while(reader.nextTag() == XMLStreamConstants.START_ELEMENT){
+                    switch(reader.getLocalName()){
+                        case PRINTERS:
+                            ReadEntries(reader, content.printers, null);
+                            break;
+                        case TEMPLATES:
+                            ReadEntries(reader, null, content.templates);
+                            break;
+                        default:
+                            content.values.put(reader.getLocalName(), ReadText(reader));
+                            break;
+                    }
+                }
+                return content;
+            }
+            finally {
+                reader.close();
+            }
+        } catch (XMLStreamException ex) {
+            throw new IOException("Invalid configuration file: " + ex.getLocalizedMessage(), ex);
+        }
+    }
+    
+    /**
+     * Writes a configuration file.
+     * @param content the configuration values.
+     * @param file the XML file.
+     * @throws IOException if the file can not be written.
+     */
+    public static void Write(Content content, File file) throws IOException{
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+            writer.writeStartDocument("UTF-8", "1.0");
+            writer.writeCharacters("\n");
+            writer.writeStartElement(ROOT);
+            if(!content.printers.isEmpty()){
+                WriteIndent(writer, 1);
+                writer.writeStartElement(PRINTERS);
+                for(Map.Entry<String, Map<String, String>> printer : content.printers.entrySet()){
+                    WriteIndent(writer, 2);
+                    writer.writeStartElement(ENTRY);
+                    WriteElement(writer, 3, KEY, printer.getKey());
+                    WriteIndent(writer, 3);
+                    writer.writeStartElement(VALUE);
+                    for(Map.Entry<String, String> value : printer.getValue().entrySet()){
+                        WriteElement(writer, 4, value.getKey(), value.getValue());
+                    }
+                    WriteIndent(writer, 3);
+                    writer.writeEndElement();
+                    WriteIndent(writer, 2);
+                    writer.writeEndElement();
+                }
+                WriteIndent(writer, 1);
+                writer.writeEndElement();
+            }
+            if(!content.templates.isEmpty()){
+                WriteIndent(writer, 1);
+                writer.writeStartElement(TEMPLATES);
+                for(Map.Entry<String, String> template : content.templates.entrySet()){
+                    WriteIndent(writer, 2);
+                    writer.writeStartElement(ENTRY);
+                    WriteElement(writer, 3, KEY, template.getKey());
+                    WriteElement(writer, 3, VALUE, template.getValue());
+                    WriteIndent(writer, 2);
+                    writer.writeEndElement();
+                }
+                WriteIndent(writer, 1);
+                writer.writeEndElement();
+            }
+            for(Map.Entry<String, String> value : content.values.entrySet()){
+                WriteElement(writer, 1, value.getKey(), value.getValue());
+            }
+            writer.writeCharacters("\n");
+            writer.writeEndElement();
+            writer.writeCharacters("\n");
+            writer.writeEndDocument();
+            writer.close();
+        } catch (XMLStreamException ex) {
+            throw new IOException(ex.getLocalizedMessage(), ex);
+        }
+    }
+    
+    /**
+     * Reads the binary snapshot of a configuration file.
+     * @param snapshot the snapshot file.
+     * @param source the XML file the snapshot was made from.
+     * @return the configuration values, or null if there is no snapshot or it is out of date.
+     */
+    public static Content ReadSnapshot(File snapshot, File source){
+        if(!snapshot.isFile()){
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshot)))) {
+            if(in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION){
+                return null;
+            }
+            if(in.readLong() != source.lastModified() || in.readLong() != source.length()){
+                return null;
+            }
+            Content content = new Content();
+            int printers = in.readInt();
+            for(int i = 0; i < printers; i++){
+                String key = in.readUTF();
+                content.printers.put(key, ReadMap(in));
+            }
+            content.templates.putAll(ReadMap(in));
+            content.values.putAll(ReadMap(in));
+            return content;
+        } catch (IOException ex) {
+            LOG.warn("The config snapshot could not be read: {}", ex.getLocalizedMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * Writes the binary snapshot of a configuration file.
+     * @param content the configuration values.
+     * @param snapshot the snapshot file.
+     * @param source the XML file the values were read from.
+     * @throws IOException if the snapshot can not be written.
+     */
+    public static void WriteSnapshot(Content content, File snapshot, File source) throws IOException{
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(snapshot)))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeLong(source.lastModified());
+            out.writeLong(source.length());
+            out.writeInt(content.printers.size());
+            for(Map.Entry<String, Map<String, String>> printer : content.printers.entrySet()){
+                out.writeUTF(printer.getKey());
+                WriteMap(out, printer.getValue());
+            }
+            WriteMap(out, content.templates);
+            WriteMap(out, content.values);
+        }
+    }
+    
+    ////////////////////////////////////////////////////////////////////////////
+    
+    public static boolean ParseBoolean(String value){
+        String v = value.trim();
+        return v.equals("true") || v.equals("1");
+    }
+    
+    public static int ParseInt(String name, String value){
+        try{
+            return Integer.parseInt(value.trim());
+        }
+        catch(NumberFormatException ex){
+            throw new IllegalArgumentException("Invalid value for " + name + ": " + value);
+        }
+    }
+    
+    public static long ParseLong(String name, String value){
+        try{
+            return Long.parseLong(value.trim());
+        }
+        catch(NumberFormatException ex){
+            throw new IllegalArgumentException("Invalid value for " + name + ": " + value);
+        }
+    }
+    
+    public static double ParseDouble(String name, String value){
+        try{
+            return Double.parseDouble(value.trim());
+        }
+        catch(NumberFormatException ex){
+            throw new IllegalArgumentException("Invalid value for " + name + ": " + value);
+        }
+    }
+    
+    public static <E extends Enum<E>> E ParseEnum(Class<E> type, String name, String value){
+        try{
+            return Enum.valueOf(type, value.trim());
+        }
+        catch(IllegalArgumentException ex){
+            throw new IllegalArgumentException("Invalid value for " + name + ": " + value);
+        }
+    }
+    
+    ////////////////////////////////////////////////////////////////////////////
+    
+    /**
+     * Reads the entries of a map element, either with element values (printers) or text values (templates).
+     */
+    private static void ReadEntries(XMLStreamReader reader, Map<String, Map<String, String>> elementValues, Map<String, String> textValues) throws XMLStreamException{
+        while(reader.nextTag() == XMLStreamConstants.START_ELEMENT){
+            if(!ENTRY.equals(reader.getLocalName())){
+                Skip(reader);
+                continue;
+            }
+            String key = null;
+            Map<String, String> values = null;
+            String text = null;
+            while(reader.nextTag() == XMLStreamConstants.START_ELEMENT){
+                if(KEY.equals(reader.getLocalName())){
+                    key = ReadText(reader);
+                }
+                else if(VALUE.equals(reader.getLocalName()) && elementValues != null){
+                    values = new LinkedHashMap<>();
+                    while(reader.nextTag() == XMLStreamConstants.START_ELEMENT){
+                        values.put(reader.getLocalName(), ReadText(reader));
+                    }
+                }
+                else if(VALUE.equals(reader.getLocalName())){
+                    text = ReadText(reader);
+                }
+                else{
+                    Skip(reader);
+                }
+            }
+            if(key != null && elementValues != null){
+                elementValues.put(key, values != null ? values : new LinkedHashMap<>());
+            }
+            else if(key != null && text != null){
+                textValues.put(key, text);
+            }
+        }
+    }
+    
+    /**
+     * Reads the text of a simple element, skipping it if it has child elements.
+     */
+    private static String ReadText(XMLStreamReader reader) throws XMLStreamException{
+        StringBuilder sb = new StringBuilder();
+        int depth = 1;
+        while(depth > 0){
+            int event = reader.next();
+            if(event == XMLStreamConstants.START_ELEMENT){
+                depth++;
+            }
+            else if(event == XMLStreamConstants.END_ELEMENT){
+                depth--;
+            }
+            else if(depth == 1 && (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA)){
+                sb.append(reader.getText());
+            }
+        }
+        return sb.toString();
+    }
+    
+    private static void Skip(XMLStreamReader reader) throws XMLStreamException{
+        ReadText(reader);
+    }
+    
+    private static void WriteIndent(XMLStreamWriter writer, int level) throws XMLStreamException{
+        writer.writeCharacters("\n");
+        for(int i = 0; i < level; i++){
+            writer.writeCharacters("    ");
+        }
+    }
+    
+    private static void WriteElement(XMLStreamWriter writer, int level, String name, String value) throws XMLStreamException{
+        WriteIndent(writer, level);
+        writer.writeStartElement(name);
+        writer.writeCharacters(value);
+        writer.writeEndElement();
+    }
+    
+    private static Map<String, String> ReadMap(DataInputStream in) throws IOException{
+        Map<String, String> map = new LinkedHashMap<>();
+        int size = in.readInt();
+        for(int i = 0; i < size; i++){
+            String key = in.readUTF();
+            map.put(key, in.readUTF());
+        }
+        return map;
+    }
+    
+    private static void WriteMap(DataOutputStream out, Map<String, String> map) throws IOException{
+        out.writeInt(map.size());
+        for(Map.Entry<String, String> entry : map.entrySet()){
+            out.writeUTF(entry.getKey());
+            out.writeUTF(entry.getValue());
+        }
+    }
+    
+}
@@ -0,0 +1,120 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Networkers SRL.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package py.com.nw.htmlprinter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes the documents as files in a directory instead of printing them: the PDF document, or
+ * the ESC/POS commands (.bin) for printers with that output mode.
+ * <p>
+ * The files are written through a memory mapping of the new file, so the content is copied once
+ * from the buffer into the page cache without a write call per block. They are not synced to
+ * disk, this backend is for tests and capacity measures.
+ * @author abiliomp
+ */
+public class DirectoryBackend implements PrinterBackend {
+    
+    /**
+     * Sequence that keeps the names of the files written in the same millisecond unique.
+     */
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+    
+    private final File directory;
+
+    public DirectoryBackend(File directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public String getName() {
+        return directory.getAbsolutePath();
+    }
+
+    @Override
+    public PrinterStatusMonitor.PrinterStatus poll(String printerId) {
+        if(!directory.isDirectory() && !directory.mkdirs()){
+            return new PrinterStatusMonitor.PrinterStatus(printerId, this, PrintResponseMessage.PRINTER_STATUS_ERROR, "Output directory does not exist and can not be created.");
+        }
+        if(!directory.canWrite()){
+            return new PrinterStatusMonitor.PrinterStatus(printerId, this, PrintResponseMessage.PRINTER_STATUS_ERROR, "Output directory is not writable.");
+        }
+        return new PrinterStatusMonitor.PrinterStatus(printerId, this, PrintResponseMessage.PRINTER_STATUS_FREE, "Output directory available.");
+    }
+
+    /**
+     * The file is complete when this method returns, so the job is reported as completed right away.
+     */
+    @Override
+    public void submit(PdfBuffer content, PrinterConfiguration printerConfig, PrintJobTracker tracker) throws IOException {
+        print(content, printerConfig);
+        tracker.done();
+    }
+
+    @Override
+    public void print(PdfBuffer content, PrinterConfiguration printerConfig) throws IOException {
+        String name = "job-" + System.currentTimeMillis() + "-" + SEQUENCE.incrementAndGet();
+        if(printerConfig.getOutputMode() == OutputMode.ESCPOS){
+            long start = System.nanoTime();
+            byte[] data = PrintSpooler.EncodeEscPos(content, printerConfig);
+            Metrics.Record(Metrics.STAGE_LOAD, System.nanoTime() - start);
+            write(name + ".bin", ByteBuffer.wrap(data));
+        }
+        else{
+            write(name + ".pdf", content.toByteBuffer());
+        }
+    }
+    
+    private void write(String fileName, ByteBuffer data) throws IOException{
+        if(!directory.isDirectory()){
+            Files.createDirectories(directory.toPath());
+        }
+        Path path = new File(directory, fileName).toPath();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if(data.remaining() > 0){
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, data.remaining());
+                mapped.put(data);
+            }
+        }
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof DirectoryBackend && ((DirectoryBackend) obj).directory.equals(directory);
+    }
+
+    @Override
+    public int hashCode() {
+        return directory.hashCode();
+    }
+    
+}
@@ -0,0 +1,132 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Networkers SRL.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package py.com.nw.htmlprinter;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+
+/**
+ * Converts PDF documents into ESC/POS raster commands for thermal receipt printers.
+ * <p>
+ * Each page is rendered as a 1-bit image at the printer's native resolution, its trailing
+ * blank rows are trimmed and the image is sent in bands with the GS v 0 raster command,
+ * followed by a paper feed and cut.
+ * @author abiliomp
+ */
+public class EscPosEncoder {
+    
+    /**
+     * Maximum number of image rows sent in each raster command, to fit the printers' buffers.
+     */
+    private static final int BAND_HEIGHT = 256;
+    
+    private static final byte[] INIT = {0x1B, 0x40};
+    private static final byte[] FEED_AND_CUT = {0x1D, 0x56, 0x42, 0x00};
+    
+    private EscPosEncoder(){}
+    
+    /**
+     * Renders and encodes every page of a PDF document.
+     * @param document the PDF document.
+     * @param dpi the printer's resolution in dots per inch.
+     * @param cut whether to feed and cut the paper after each page.
+     * @return the ESC/POS commands.
+     * @throws IOException if a page can not be rendered.
+     */
+    public static byte[] Encode(PDDocument document, int dpi, boolean cut) throws IOException{
+        PDFRenderer renderer = new PDFRenderer(document);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(INIT);
+        for(int i = 0; i < document.getNumberOfPages(); i++){
+            BufferedImage image = renderer.renderImageWithDPI(i, dpi, ImageType.BINARY);
+            EncodeImage(image, out);
+            if(cut){
+                out.write(FEED_AND_CUT);
+            }
+        }
+        return out.toByteArray();
+    }
+    
+    /**
+     * Encodes a 1-bit image as GS v 0 raster bands.
+     * @param image an image of type {@link BufferedImage#TYPE_BYTE_BINARY}.
+     * @param out the stream that receives the commands.
+     */
+    static void EncodeImage(BufferedImage image, ByteArrayOutputStream out){
+        int width = image.getWidth();
+        int widthBytes = (width + 7) / 8;
+        byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        // The image uses 1 for white and ESC/POS uses 1 for black, so the bits are inverted.
+        // The padding bits at the end of each row must stay blank.
+        int lastBits = width % 8;
+        byte lastMask = (byte) (lastBits == 0 ? 0xFF : (0xFF << (8 - lastBits)));
+        byte[] row = new byte[widthBytes];
+        int height = LastPrintedRow(pixels, widthBytes, image.getHeight(), lastMask) + 1;
+        for(int bandStart = 0; bandStart < height; bandStart += BAND_HEIGHT){
+            int bandHeight = Math.min(BAND_HEIGHT, height - bandStart);
+            out.write(0x1D);
+            out.write(0x76);
+            out.write(0x30);
+            out.write(0x00);
+            out.write(widthBytes & 0xFF);
+            out.write((widthBytes >> 8) & 0xFF);
+            out.write(bandHeight & 0xFF);
+            out.write((bandHeight >> 8) & 0xFF);
+            for(int y = bandStart; y < bandStart + bandHeight; y++){
+                int offset = y * widthBytes;
+                for(int x = 0; x < widthBytes; x++){
+                    row[x] = (byte) ~pixels[offset + x];
+                }
+                row[widthBytes - 1] &= lastMask;
+                out.write(row, 0, widthBytes);
+            }
+        }
+    }
+    
+    /**
+     * Looks for the last row with any black pixel, so the blank end of the page is not printed.
+     * @return the row index, or -1 if the image is blank.
+     */
+    private static int LastPrintedRow(byte[] pixels, int widthBytes, int height, byte lastMask){
+        for(int y = height - 1; y >= 0; y--){
+            int offset = y * widthBytes;
+            for(int x = 0; x < widthBytes; x++){
+                byte black = (byte) ~pixels[offset + x];
+                if(x == widthBytes - 1){
+                    black &= lastMask;
+                }
+                if(black != 0){
+                    return y;
+                }
+            }
+        }
+        return -1;
+    }
+    
+}
@@ -24,16 +24,9 @@
 
 package py.com.nw.htmlprinter;
 
-import com.itextpdf.html2pdf.ConverterProperties;
-import com.itextpdf.html2pdf.HtmlConverter;
-import com.itextpdf.kernel.events.PdfDocumentEvent;
-import com.itextpdf.kernel.geom.PageSize;
-import com.itextpdf.kernel.pdf.PdfDocument;
 import com.itextpdf.kernel.pdf.PdfWriter;
 import java.awt.print.PrinterException;
-import java.awt.print.PrinterJob;
 import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -45,13 +38,10 @@ import java.net.UnknownHostException;
 import java.nio.file.Files;
 import java.util.Calendar;
 import java.util.List;
-import java.util.logging.FileHandler;
-import java.util.logging.Logger;
-import java.util.logging.SimpleFormatter;
-import javax.print.PrintService;
-import javax.xml.bind.JAXBException;
-import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.printing.PDFPageable;
+import java.util.concurrent.TimeoutException;
+import javax.print.PrintException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  *
@@ -66,6 +56,7 @@ public class HTMLPrinter {
     private static final String CSS_FILE_ARG = "--css";
     private static final String CHARSET_ARG = "--charset";
     private static final String TO_PDF_ARG = "--to-pdf";
+    private static final String TO_ESCPOS_ARG = "--to-escpos";
     private static final String INIT_CONFIG_FILE_ARG = "--init";
     private static final String CONFIG_FILE_ARG = "--config";
     private static final String ERROR_LOG_ARG = "--error-log";
@@ -73,18 +64,34 @@ public class HTMLPrinter {
     private static final String RUN_SERVICE_ARG2 = "-s";
     private static final String WEBSOCKET_PORT_ARG = "--websocket-port";
     private static final String WEBSOCKET_PORT_ARG2 = "-w";
+    private static final String LOCAL_ARG = "--local";
     private static final String SERVICE_ERROR_LOGS_FOLDER = "service_error_logs";
     
+    /**
+     * Exit codes of the requests forwarded to a running service.
+     */
+    private static final int EXIT_DONE = 0;
+    private static final int EXIT_REJECTED = 2;
+    private static final int EXIT_NO_RESPONSE = 3;
+    private static final int EXIT_EXPIRED = 4;
+    private static final int EXIT_CANCELLED = 5;
+    
+    /**
+     * Maximum time to wait for a running service to print a forwarded request.
+     */
+    private static final long SERVICE_PRINT_TIMEOUT = 120000;
+    
     public static void main(String[] args) {
         
         
         
-        Logger errorLogger = Logger.getLogger("HTMLPrinterErrorLogger");  
-        FileHandler errorLogFileHandler;         
+        Logging.Init();
+        Logger errorLogger = LoggerFactory.getLogger(Logging.ERROR_LOGGER);
         
         boolean doInitConfig = false;
         boolean doErrorLogging = false;
         boolean showHelp = false;
+        boolean forceLocal = false;
         Boolean runService = null;
         Integer servicePort = null;
         String htmlFilePath = null;
@@ -92,6 +99,7 @@ public class HTMLPrinter {
         String cssFilePath = null;
         String charsetName = "UTF8";
         String pdfFileName = null;
+        String escPosFileName = null;
         String printer = null;
         PrinterConfiguration printerConfig = null;
         
@@ -111,6 +119,9 @@ public class HTMLPrinter {
             else if(arg.compareTo(TO_PDF_ARG) == 0){
                 pdfFileName = args.length > (i + 1) ? args[i + 1] : null;
             }
+            else if(arg.compareTo(TO_ESCPOS_ARG) == 0){
+                escPosFileName = args.length > (i + 1) ? args[i + 1] : null;
+            }
             else if(arg.compareTo(INIT_CONFIG_FILE_ARG) == 0){
                 doInitConfig = true;
             }
@@ -121,6 +132,9 @@ public class HTMLPrinter {
                 doErrorLogging = true;
                 System.out.println("[HTMLPrinter] Error logging enabled.");
             }
+            else if(arg.compareTo(LOCAL_ARG) == 0){
+                forceLocal = true;
+            }
             else if(arg.compareTo(HELP_ARG) == 0 || arg.compareTo(HELP_ARG2) == 0){
                 showHelp = true;
             }
@@ -142,9 +156,12 @@ public class HTMLPrinter {
             System.out.println("\t--css <CSSFilePath> : specifies an aditional CSS file to be applied.");
             System.out.println("\t--charset <CharsetName> : sets the charset to read the files (default UTF8).");
             System.out.println("\t--to-pdf <PDFFilePath> : generates a PDF document to be stored in the specified path.");
+            System.out.println("\t--to-escpos <FilePath> : generates the ESC/POS raster commands of the printer to be stored in the specified path instead of printing.");
             System.out.println("\t--error-log : enables the error logging functionality. The program will generate one .log file with the same path of the HTML file.");
             System.out.println("\t-s or --run-service : run the program as a service daemon. This parameter will discard the HTMLFilePath if specified.");
             System.out.println("\t-w <port> or --websocket-port <port> : sets the service daemon websocket TCP port number. Default is 3333.");
+            System.out.println("\t--local : renders and prints in this process even if the service is running. By default the HTML is sent to the service running on this computer, if any.");
+            System.out.println("Exit codes when printing through the service: 0 printed, 2 rejected, 3 no response from the service or unknown outcome, 4 expired, 5 cancelled.");
             System.out.println("Supported Charsets: UTF8, UTF16, ASCII and 8859.");
             return;
         }
@@ -180,12 +197,12 @@ public class HTMLPrinter {
             if(servicePort != null)
                 Configuration.SetWebSocketPort(servicePort);
             System.out.println("[HTMLPrinter] Config file loaded!");            
-        } catch (UnsupportedEncodingException | URISyntaxException | JAXBException ex) {
-            String errMsg = "[HTMLPrinter ERR] Error in while reading the configuration file:\n" + ex.getLocalizedMessage();
-            System.err.println(errMsg);
         } catch (FileNotFoundException ex) {
             System.err.println("[HTMLPrinter ERR] Configuration file not found. Please run the program with the --init option.");
             return;
+        } catch (IOException | URISyntaxException ex) {
+            String errMsg = "[HTMLPrinter ERR] Error in while reading the configuration file:\n" + ex.getLocalizedMessage();
+            System.err.println(errMsg);
         }
         // End Config File Operations   /////////////////////////////////////////////////////////////////////////////
         
@@ -211,11 +228,8 @@ public class HTMLPrinter {
                     Calendar cal = Calendar.getInstance();
                     String logFileURI = logFolder.toURI() + Integer.toString(cal.get(Calendar.YEAR)) + String.format("%02d", cal.get(Calendar.MONTH) + 1) + String.format("%02d", cal.get(Calendar.DAY_OF_MONTH)) + ".log";
                     File logFile = new File(new URI(logFileURI));
-                    errorLogFileHandler = new FileHandler(logFile.getAbsolutePath());
+                    Logging.EnableErrorLog(logFile);
                     System.out.println("[HTMLPrinter] Logging errors to: " + logFile.getAbsolutePath());
-                    errorLogger.addHandler(errorLogFileHandler);
-                    SimpleFormatter formatter = new SimpleFormatter();  
-                    errorLogFileHandler.setFormatter(formatter);
                 } catch (URISyntaxException | IOException | SecurityException ex) {
                     String errMsg = "[HTMLPrinter ERR] " + ex.getLocalizedMessage();
                     System.err.println(errMsg);
@@ -226,6 +240,13 @@ public class HTMLPrinter {
             
             // Server setup and launch /////////////////////////////////////////
             try {
+            System.out.println("[HTMLPrinter] Loading the render profiles...");
+            Configuration.BuildRenderProfiles();
+            if(Configuration.GetWarmupIterations() > 0){
+                System.out.println("[HTMLPrinter] Warming up the renderer...");
+                long warmupTime = ServiceWarmup.Run(Configuration.GetWarmupIterations());
+                System.out.println("[HTMLPrinter] Warm-up completed in " + warmupTime + " ms.");
+            }
             PrintServer printServer = new PrintServer(Configuration.GetWebSocketPort());
             System.out.println("[HTMLPrinter] Starting print server...");
             printServer.start();
@@ -243,7 +264,7 @@ public class HTMLPrinter {
                 String errMsg = "[HTMLPrinter ERR] UnknownHostException: " + ex.getLocalizedMessage();
                 System.err.println(errMsg);
                 if(doErrorLogging){
-                    errorLogger.severe(errMsg);
+                    errorLogger.error(errMsg);
                 }
                 return;
             } 
@@ -251,7 +272,7 @@ public class HTMLPrinter {
                 String errMsg = "[HTMLPrinter ERR] IOException: " + ex.getLocalizedMessage();
                 System.err.println(errMsg);
                 if(doErrorLogging){
-                    errorLogger.severe(errMsg);
+                    errorLogger.error(errMsg);
                 }
                 return;
             } 
@@ -259,7 +280,7 @@ public class HTMLPrinter {
                 String errMsg = "[HTMLPrinter ERR] InterruptedException: " + ex.getLocalizedMessage();
                 System.err.println(errMsg);
                 if(doErrorLogging){
-                    errorLogger.severe(errMsg);
+                    errorLogger.error(errMsg);
                 }
                 return;
             }
@@ -281,15 +302,12 @@ public class HTMLPrinter {
                 else{
                     if(doErrorLogging){
                         try {
-                            errorLogFileHandler = new FileHandler(htmlFile.getAbsolutePath().replaceAll("\\.html", ".log"));
+                            Logging.EnableErrorLog(new File(htmlFile.getAbsolutePath().replaceAll("\\.html", ".log")));
                         } catch (IOException | SecurityException ex) {
                             String errMsg = "[HTMLPrinter ERR] " + ex.getLocalizedMessage();
                             System.err.println(errMsg);
                             return;
                         }
-                        errorLogger.addHandler(errorLogFileHandler);
-                        SimpleFormatter formatter = new SimpleFormatter();  
-                        errorLogFileHandler.setFormatter(formatter);
                     }
                     
                     // Check printer's configuration ///////////////////////////
@@ -299,7 +317,7 @@ public class HTMLPrinter {
                         if(printerConfig == null){
                             String errMsg = "[HTMLPrinter ERR] Specified printer " + printer + " not found.";
                             if(doErrorLogging){
-                                errorLogger.severe(errMsg);
+                                errorLogger.error(errMsg);
                             }
                             System.err.println(errMsg);
                             return;
@@ -313,7 +331,7 @@ public class HTMLPrinter {
                         if(printerConfig == null){
                             String errMsg = "[HTMLPrinter ERR] No default printer found.";
                             if(doErrorLogging){
-                                errorLogger.severe(errMsg);
+                                errorLogger.error(errMsg);
                             }
                             System.err.println(errMsg);
                             return;
@@ -327,7 +345,7 @@ public class HTMLPrinter {
                     } catch (IOException ex) {
                         String errMsg = "[HTMLPrinter ERR] " + ex.getLocalizedMessage();
                         if(doErrorLogging){
-                            errorLogger.severe(errMsg);
+                            errorLogger.error(errMsg);
                         }
                         System.err.println(errMsg);
                         return;
@@ -347,7 +365,7 @@ public class HTMLPrinter {
                             if(!cssFile.exists()){
                                 String errMsg = "[HTMLPrinter ERR] Specified CSS file not found in \"" + cssFilePath + "\" .";
                                 if(doErrorLogging){
-                                    errorLogger.severe(errMsg);
+                                    errorLogger.error(errMsg);
                                 }
                                 System.err.println(errMsg);
                                 return;
@@ -360,7 +378,7 @@ public class HTMLPrinter {
                             } catch (IOException ex) {
                                 String errMsg = "[HTMLPrinter ERR] " + ex.getLocalizedMessage();
                                 if(doErrorLogging){
-                                    errorLogger.severe(errMsg);
+                                    errorLogger.error(errMsg);
                                 }
                                 System.err.println(errMsg);
                             }
@@ -378,7 +396,7 @@ public class HTMLPrinter {
                             else{
                                 String errMsg = "[HTMLPrinter ERR] No HTML </head> tag found. Can't insert the specified CSS content.";
                                 if(doErrorLogging){
-                                    errorLogger.severe(errMsg);
+                                    errorLogger.error(errMsg);
                                 }
                                 System.err.println(errMsg);
                                 return;
@@ -388,93 +406,68 @@ public class HTMLPrinter {
                         // End CSS File Operations //////////////////////////////////////////////////////////////////////////////////
 
                         // HTML contents are complete at this point....
+                        // Hand them over to the service if it is running, since it has the renderer already loaded.
+                        if(!forceLocal && pdfFileName == null && escPosFileName == null){
+                            int port = servicePort != null ? servicePort : Configuration.GetWebSocketPort();
+                            // The service does not share the working directory, so the relative resources are resolved
+                            // against the HTML file folder unless the printer has its own base URI.
+                            String baseUri = printerConfig.getBaseUri() == null ? htmlFile.getAbsoluteFile().getParent() : null;
+                            int exitCode = PrintThroughService(html.toString(), charsetName, baseUri, printer, port, doErrorLogging ? errorLogger : null);
+                            if(exitCode >= 0){
+                                System.exit(exitCode);
+                            }
+                            System.out.println("[HTMLPrinter] No print service running on port " + port + ". Printing locally.");
+                        }
                         System.out.println("[HTMLPrinter] Generating PDF content...");
-                        PdfWriter pdfW = null;
-                        ByteArrayOutputStream baos = null;
+                        PdfBuffer content = null;
                         if(pdfFileName == null){
                             // In memory content to print
-                            baos = new ByteArrayOutputStream();
-                            pdfW = new PdfWriter(baos);
+                            content = printerConfig.getRenderProfile().render(html.toString(), charsetName);
                         }
                         else{
                             // PDF to disk
                             File pdfFile = new File(pdfFileName);
                             try {
-                                pdfW = new PdfWriter(pdfFile);
+                                printerConfig.getRenderProfile().render(html.toString(), charsetName, new PdfWriter(pdfFile));
                             } 
                             catch (FileNotFoundException ex) {
                                 String errMsg = "[HTMLPrinter ERR] " + ex.getLocalizedMessage();
                                 if(doErrorLogging){
-                                    errorLogger.severe(errMsg);
+                                    errorLogger.error(errMsg);
                                 }
                                 System.err.println(errMsg);
                                 return;
                             }
                         }
 
-                        PdfDocument pdfDoc = new PdfDocument(pdfW);
-                        PageOrientationsEventHandler eventHandler = new PageOrientationsEventHandler();
-                        pdfDoc.addEventHandler(PdfDocumentEvent.START_PAGE, eventHandler);
-                        PageSize pz = new PageSize((float) Configuration.mmToDots(printerConfig.getPaperWidth()), (float) Configuration.mmToDots(printerConfig.getPaperHeight()));
-                        switch(printerConfig.getPageOrientation()){
-                            case LANDSCAPE:
-                                eventHandler.setOrientation(PageOrientationsEventHandler.LANDSCAPE);
-                                pz = pz.rotate();
-                                break;
-                            case INVERTEDPORTRAIT:
-                                eventHandler.setOrientation(PageOrientationsEventHandler.INVERTEDPORTRAIT);
-                                break;
-                            case SEASCAPE:
-                                eventHandler.setOrientation(PageOrientationsEventHandler.SEASCAPE);
-                                pz = pz.rotate();
-                                break;
-                            default:
-                                eventHandler.setOrientation(PageOrientationsEventHandler.PORTRAIT);
-                                break;
-                        }
-                        pdfDoc.setDefaultPageSize(pz);
-                        ConverterProperties convP = new ConverterProperties();
-                        convP.setCharset(charsetName);
-                        HtmlConverter.convertToPdf(html.toString(), pdfDoc, convP);
-
                         System.out.println("[HTMLPrinter] PDF contents generated!");                   
 
-                        if(baos != null){
-                            // Printing part...
-                            System.out.println("[HTMLPrinter] Sending contents to printer...");
-                            PDDocument document;
+                        if(content != null && escPosFileName != null){
+                            // ESC/POS commands to disk
+                            System.out.println("[HTMLPrinter] Generating ESC/POS content...");
                             try {
-                                document = PDDocument.load(baos.toByteArray());
+                                Files.write(new File(escPosFileName).toPath(), PrintSpooler.EncodeEscPos(content, printerConfig));
+                                System.out.println("[HTMLPrinter] ESC/POS content generated!");
                             } catch (IOException ex) {
                                 String errMsg = "[HTMLPrinter ERR] " + ex.getLocalizedMessage();
                                 if(doErrorLogging){
-                                    errorLogger.severe(errMsg);
+                                    errorLogger.error(errMsg);
                                 }
                                 System.err.println(errMsg);
-                                return;
                             }
-
-                            PrintService printerService = PrintServiceHelper.find(printerConfig.getPrinterName());
-                            if(printerService != null){
-                                PrinterJob job = PrinterJob.getPrinterJob();
-                                job.setPageable(new PDFPageable(document));
-                                try {
-                                    job.setPrintService(printerService);
-                                } catch (PrinterException ex) {
-                                    String errMsg = "[HTMLPrinter ERR] " + ex.getLocalizedMessage();
-                                    if(doErrorLogging){
-                                        errorLogger.severe(errMsg);
-                                    }
-                                    System.err.println(errMsg);
-                                    return;
-                                }
+                        }
+                        else if(content != null){
+                            // Printing part...
+                            System.out.println("[HTMLPrinter] Sending contents to printer...");
+                            PrinterBackend backend = PrinterBackends.Find(printerConfig);
+                            if(backend != null){
                                 try {
-                                    job.print();
+                                    backend.print(content, printerConfig);
                                     System.out.println("[HTMLPrinter] Print complete!");
-                                } catch (PrinterException ex) {
+                                } catch (IOException | PrinterException | PrintException ex) {
                                     String errMsg = "[HTMLPrinter ERR] " + ex.getLocalizedMessage();
                                     if(doErrorLogging){
-                                        errorLogger.severe(errMsg);
+                                        errorLogger.error(errMsg);
                                     }
                                     System.err.println(errMsg);
                                 }
@@ -482,7 +475,7 @@ public class HTMLPrinter {
                             else{
                                 String errMsg = "[HTMLPrinter ERR] Specified printer not found! Check the configuration file.";
                                 if(doErrorLogging){
-                                    errorLogger.severe(errMsg);
+                                    errorLogger.error(errMsg);
                                 }
                                 System.err.println(errMsg);
                             }
@@ -491,7 +484,7 @@ public class HTMLPrinter {
                     else{
                         String errMsg = "[HTMLPrinter ERR] Specied HTML file is empty.";
                         if(doErrorLogging){
-                            errorLogger.severe(errMsg);
+                            errorLogger.error(errMsg);
                         }
                         System.err.println(errMsg);
                     }
@@ -500,7 +493,76 @@ public class HTMLPrinter {
             }
         }        
     }
+
     
+    /**
+     * Sends the HTML content to the print service running on this computer and waits until it is printed.
+     * @param html the HTML content, with the CSS content already included.
+     * @param charsetName the charset name.
+     * @param baseUri the base URI for the relative resources, or null for the printer's one.
+     * @param printerId the printer id, or null for the service's default printer.
+     * @param port the service websocket port.
+     * @param errorLogger the error logger, or null if error logging is disabled.
+     * @return the program exit code, or -1 if there is no service running.
+     */
+    private static int PrintThroughService(String html, String charsetName, String baseUri, String printerId, int port, Logger errorLogger){
+        PrintClient client;
+        try {
+            client = PrintClient.Connect(port);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return -1;
+        }
+        if(client == null){
+            return -1;
+        }
+        PrintRequestMessage request = new PrintRequestMessage(html);
+        request.setPrinterId(printerId);
+        request.setCharset(charsetName);
+        request.setBaseUri(baseUri);
+        String errMsg;
+        try {
+            PrintResponseMessage prm = client.print(request, SERVICE_PRINT_TIMEOUT);
+            int exitCode;
+            switch(prm.getRequestStatus()){
+                case PrintResponseMessage.REQUEST_STATUS_DONE:
+                    System.out.println("[HTMLPrinter] Print complete!");
+                    return EXIT_DONE;
+                case PrintResponseMessage.REQUEST_STATUS_EXPIRED:
+                    errMsg = "[HTMLPrinter ERR] The print job expired before it was printed: " + prm.getMessage();
+                    exitCode = EXIT_EXPIRED;
+                    break;
+                case PrintResponseMessage.REQUEST_STATUS_CANCELLED:
+                    errMsg = "[HTMLPrinter ERR] The print job was cancelled: " + prm.getMessage();
+                    exitCode = EXIT_CANCELLED;
+                    break;
+                case PrintResponseMessage.REQUEST_STATUS_REJECTED:
+                    errMsg = "[HTMLPrinter ERR] The print service rejected the request: " + prm.getMessage();
+                    exitCode = EXIT_REJECTED;
+                    break;
+                default:
+                    errMsg = "[HTMLPrinter ERR] The print service does not know the outcome of the job: " + prm.getMessage();
+                    exitCode = EXIT_NO_RESPONSE;
+                    break;
+            }
+            System.err.println(errMsg);
+            if(errorLogger != null){
+                errorLogger.error(errMsg);
+            }
+            return exitCode;
+        } catch (IOException ex) {
+            errMsg = "[HTMLPrinter ERR] " + ex.getLocalizedMessage();
+        } catch (TimeoutException ex) {
+            errMsg = "[HTMLPrinter ERR] The print service did not report the end of the job in time.";
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            errMsg = "[HTMLPrinter ERR] Interrupted while waiting for the print service.";
+        }
+        System.err.println(errMsg);
+        if(errorLogger != null){
+            errorLogger.error(errMsg);
+        }
+        return EXIT_NO_RESPONSE;
+    }
     
-    
-}
+}
\ No newline at end of file
@@ -0,0 +1,289 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Networkers SRL.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package py.com.nw.htmlprinter;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * A compiled HTML template that generates documents from JSON data.
+ * <p>
+ * The template source is parsed once into a tree of text, value and section nodes, so each
+ * document is generated by walking the tree instead of parsing the source again.
+ * The syntax is a subset of Mustache:
+ * <ul>
+ * <li>{{name}} : the value of name, HTML escaped. Dotted names (a.b.c) go into nested objects and {{.}} is the current item.</li>
+ * <li>{{{name}}} or {{&amp;name}} : the value of name, not escaped.</li>
+ * <li>{{#name}}...{{/name}} : repeated for each item of an array, rendered once for a true value or an object.</li>
+ * <li>{{^name}}...{{/name}} : rendered only when the value is missing, false or empty.</li>
+ * <li>{{!comment}} : ignored.</li>
+ * </ul>
+ * @author abiliomp
+ */
+public class HtmlTemplate {
+    
+    private final List<Node> nodes;
+    
+    /**
+     * Estimated size of the generated documents, to avoid growing the output buffer.
+     */
+    private final int sizeHint;
+
+    private HtmlTemplate(List<Node> nodes, int sizeHint) {
+        this.nodes = nodes;
+        this.sizeHint = sizeHint;
+    }
+    
+    /**
+     * Parses a template source.
+     * @param source the template source.
+     * @return the compiled template.
+     * @throws IllegalArgumentException if the template has syntax errors.
+     */
+    public static HtmlTemplate Compile(String source){
+        Deque<Section> openSections = new ArrayDeque<>();
+        List<Node> root = new ArrayList<>();
+        List<Node> current = root;
+        int pos = 0;
+        while(pos < source.length()){
+            int start = source.indexOf("{{", pos);
+            if(start < 0){
+                current.add(new Text(source.substring(pos)));
+                break;
+            }
+            if(start > pos){
+                current.add(new Text(source.substring(pos, start)));
+            }
+            boolean triple = source.startsWith("{{{", start);
+            String closing = triple ? "}}}" : "}}";
+            int end = source.indexOf(closing, start);
+            if(end < 0){
+                throw new IllegalArgumentException("Unclosed tag at position " + start + ".");
+            }
+            String tag = source.substring(start + (triple ? 3 : 2), end).trim();
+            pos = end + closing.length();
+            if(triple){
+                current.add(new Value(tag, false));
+            }
+            else if(tag.startsWith("!")){
+                // Comment
+            }
+            else if(tag.startsWith("&")){
+                current.add(new Value(tag.substring(1).trim(), false));
+            }
+            else if(tag.startsWith("#") || tag.startsWith("^")){
+                Section section = new Section(tag.substring(1).trim(), tag.startsWith("^"));
+                current.add(section);
+                openSections.push(section);
+                current = section.children;
+            }
+            else if(tag.startsWith("/")){
+                String name = tag.substring(1).trim();
+                if(openSections.isEmpty() || !openSections.peek().name.equals(name)){
+                    throw new IllegalArgumentException("Unexpected closing tag {{/" + name + "}} at position " + start + ".");
+                }
+                openSections.pop();
+                current = openSections.isEmpty() ? root : openSections.peek().children;
+            }
+            else{
+                current.add(new Value(tag, true));
+            }
+        }
+        if(!openSections.isEmpty()){
+            throw new IllegalArgumentException("Unclosed section {{#" + openSections.peek().name + "}}.");
+        }
+        return new HtmlTemplate(root, source.length() + source.length() / 2);
+    }
+    
+    /**
+     * Generates an HTML document with the specified data.
+     * @param data the JSON data. Can be null.
+     * @return the HTML document.
+     */
+    public String render(JsonElement data){
+        StringBuilder out = new StringBuilder(sizeHint);
+        Deque<JsonElement> context = new ArrayDeque<>();
+        if(data != null){
+            context.push(data);
+        }
+        render(nodes, context, out);
+        return out.toString();
+    }
+    
+    private static void render(List<Node> nodes, Deque<JsonElement> context, StringBuilder out){
+        for(Node node : nodes){
+            node.render(context, out);
+        }
+    }
+    
+    /**
+     * Looks for a value in the context, starting from the innermost item.
+     */
+    private static JsonElement Lookup(String[] path, Deque<JsonElement> context){
+        if(path.length == 0){
+            return context.peek();
+        }
+        for(JsonElement item : context){
+            if(item.isJsonObject() && item.getAsJsonObject().has(path[0])){
+                JsonElement value = item.getAsJsonObject().get(path[0]);
+                for(int i = 1; i < path.length && value != null; i++){
+                    value = value.isJsonObject() ? value.getAsJsonObject().get(path[i]) : null;
+                }
+                return value;
+            }
+        }
+        return null;
+    }
+    
+    private static String[] ParsePath(String name){
+        return name.equals(".") ? new String[0] : name.split("\\.");
+    }
+    
+    private static boolean IsTrue(JsonElement value){
+        if(value == null || value.isJsonNull()){
+            return false;
+        }
+        if(value.isJsonArray()){
+            return value.getAsJsonArray().size() > 0;
+        }
+        if(value.isJsonPrimitive()){
+            JsonPrimitive p = value.getAsJsonPrimitive();
+            if(p.isBoolean()){
+                return p.getAsBoolean();
+            }
+            if(p.isString()){
+                return !p.getAsString().isEmpty();
+            }
+        }
+        return true;
+    }
+    
+    private static void AppendEscaped(String value, StringBuilder out){
+        for(int i = 0; i < value.length(); i++){
+            char c = value.charAt(i);
+            switch(c){
+                case '&': out.append("&amp;"); break;
+                case '<': out.append("&lt;"); break;
+                case '>': out.append("&gt;"); break;
+                case '"': out.append("&quot;"); break;
+                case '\'': out.append("&#39;"); break;
+                default: out.append(c); break;
+            }
+        }
+    }
+    
+    // Template nodes //////////////////////////////////////////////////////////
+    
+    private interface Node {
+        void render(Deque<JsonElement> context, StringBuilder out);
+    }
+    
+    private static class Text implements Node {
+        
+        private final String text;
+
+        Text(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public void render(Deque<JsonElement> context, StringBuilder out) {
+            out.append(text);
+        }
+    }
+    
+    private static class Value implements Node {
+        
+        private final String[] path;
+        private final boolean escape;
+
+        Value(String name, boolean escape) {
+            this.path = ParsePath(name);
+            this.escape = escape;
+        }
+
+        @Override
+        public void render(Deque<JsonElement> context, StringBuilder out) {
+            JsonElement value = Lookup(path, context);
+            if(value == null || value.isJsonNull()){
+                return;
+            }
+            String text = value.isJsonPrimitive() ? value.getAsString() : value.toString();
+            if(escape){
+                AppendEscaped(text, out);
+            }
+            else{
+                out.append(text);
+            }
+        }
+    }
+    
+    private static class Section implements Node {
+        
+        private final String name;
+        private final String[] path;
+        private final boolean inverted;
+        private final List<Node> children = new ArrayList<>();
+
+        Section(String name, boolean inverted) {
+            this.name = name;
+            this.path = ParsePath(name);
+            this.inverted = inverted;
+        }
+
+        @Override
+        public void render(Deque<JsonElement> context, StringBuilder out) {
+            JsonElement value = Lookup(path, context);
+            if(inverted){
+                if(!IsTrue(value)){
+                    HtmlTemplate.render(children, context, out);
+                }
+            }
+            else if(IsTrue(value)){
+                if(value.isJsonArray()){
+                    JsonArray items = value.getAsJsonArray();
+                    for(JsonElement item : items){
+                        context.push(item);
+                        HtmlTemplate.render(children, context, out);
+                        context.pop();
+                    }
+                }
+                else if(value.isJsonObject()){
+                    context.push(value);
+                    HtmlTemplate.render(children, context, out);
+                    context.pop();
+                }
+                else{
+                    HtmlTemplate.render(children, context, out);
+                }
+            }
+        }
+    }
+    
+}
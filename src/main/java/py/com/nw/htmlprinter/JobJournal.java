@@ -0,0 +1,618 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Networkers SRL.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package py.com.nw.htmlprinter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only journal of the print jobs accepted by the service, so the jobs that were waiting
+ * when the service stopped are printed after a restart and the clients can ask what happened to
+ * their jobs.
+ * <p>
+ * Each job records its transitions: accepted (with the request, to replay it), rendered, spooled
+ * and done or failed. The records are copied into a memory mapped region of the journal file, so
+ * an append is a memory copy under a short lock, and a background thread flushes the region to
+ * disk every "journalSyncInterval" milliseconds (group commit): the transitions of that interval
+ * are made durable together, away from the request threads.
+ * <p>
+ * When the file grows beyond "journalMaxSize" bytes it is compacted into a new generation of the
+ * file (path plus ".1", ".2" and so on) that only has the unfinished jobs and the final state of
+ * the last finished ones. The previous generation is deleted; if it can not be deleted while mapped
+ * it is deleted the next time the journal is opened.
+ * <p>
+ * Jobs that were accepted or rendered are replayed on restart. Jobs that were already sent to the
+ * printer are not sent again, since they may have been printed, and are reported as unknown.
+ * @author abiliomp
+ */
+public class JobJournal {
+    
+    private static final Logger LOG = LoggerFactory.getLogger(JobJournal.class);
+    
+    private static final byte ACCEPTED = 1;
+    private static final byte RENDERED = 2;
+    private static final byte SPOOLED = 3;
+    private static final byte DONE = 4;
+    private static final byte FAILED = 5;
+    private static final byte UNKNOWN = 6;
+    private static final byte EXPIRED = 7;
+    private static final byte CANCELLED = 8;
+    
+    /**
+     * Size of each mapped region of the file. The file grows by this size.
+     */
+    private static final int REGION_SIZE = 1024 * 1024;
+    
+    /**
+     * Record header: body length and body checksum.
+     */
+    private static final int HEADER_SIZE = 8;
+    
+    /**
+     * Number of finished jobs kept to answer status queries.
+     */
+    private static final int FINISHED_KEPT = 1000;
+    
+    private static volatile JobJournal Current = null;
+    
+    private final File basePath;
+    private final long maxSize;
+    private final LinkedHashMap<String, Entry> jobs = new LinkedHashMap<>();
+    private final ScheduledExecutorService syncer;
+    private int finishedCount = 0;
+    private int generation;
+    private FileChannel channel;
+    private MappedByteBuffer region;
+    private long end;
+    private long compactedSize = 0;
+    private volatile boolean dirty = false;
+    
+    private JobJournal(File basePath, long maxSize) {
+        this.basePath = basePath;
+        this.maxSize = maxSize;
+        syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r);
+            t.setName("JobJournal");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+    
+    // Service API /////////////////////////////////////////////////////////////
+    
+    /**
+     * Opens the journal, reading the jobs of the previous runs of the service.
+     * The jobs to be replayed are available through {@link #GetPending()}.
+     * @param file the journal file path, without the generation suffix.
+     * @param maxSize the file size that triggers a compaction.
+     * @param syncInterval the time in milliseconds between flushes to disk.
+     * @throws IOException if the journal can not be read or created.
+     */
+    public static synchronized void Open(File file, long maxSize, long syncInterval) throws IOException{
+        if(Current != null){
+            return;
+        }
+        JobJournal journal = new JobJournal(file.getAbsoluteFile(), maxSize);
+        journal.load();
+        journal.syncer.scheduleWithFixedDelay(journal::sync, syncInterval, Math.max(1, syncInterval), TimeUnit.MILLISECONDS);
+        Current = journal;
+        LOG.info("Job journal opened at {}: {} jobs to replay.", journal.currentFile(), journal.pending().size());
+    }
+    
+    /**
+     * Flushes and closes the journal.
+     */
+    public static synchronized void Close(){
+        JobJournal journal = Current;
+        if(journal == null){
+            return;
+        }
+        Current = null;
+        journal.syncer.shutdownNow();
+        journal.close();
+    }
+    
+    /**
+     * Checks if the service keeps a journal.
+     * @return true if the journal is open.
+     */
+    public static boolean IsEnabled(){
+        return Current != null;
+    }
+    
+    /**
+     * Records a job accepted in a printer queue.
+     * @param jobId the job id.
+     * @param printerId the printer id.
+     * @param request the request message, replayed if the service stops before the job is printed.
+     */
+    public static void Accepted(String jobId, String printerId, String request){
+        Record(ACCEPTED, jobId, printerId, request);
+    }
+    
+    public static void Rendered(String jobId){
+        Record(RENDERED, jobId, null, null);
+    }
+    
+    public static void Spooled(String jobId){
+        Record(SPOOLED, jobId, null, null);
+    }
+    
+    public static void Done(String jobId){
+        Record(DONE, jobId, null, null);
+    }
+    
+    public static void Failed(String jobId, String message){
+        Record(FAILED, jobId, null, message);
+    }
+    
+    public static void Expired(String jobId){
+        Record(EXPIRED, jobId, null, null);
+    }
+    
+    public static void Cancelled(String jobId){
+        Record(CANCELLED, jobId, null, null);
+    }
+    
+    private static void Record(byte state, String jobId, String printerId, String text){
+        JobJournal journal = Current;
+        if(journal == null || jobId == null){
+            return;
+        }
+        try{
+            journal.record(state, jobId, printerId, text);
+        }
+        catch(IOException ex){
+            LOG.error("The job {} could not be recorded in the journal: {}", jobId, ex.getLocalizedMessage());
+        }
+    }
+    
+    /**
+     * Retrieves the last known state of a job.
+     * @param jobId the job id.
+     * @return the job entry, or null if the job is unknown or the journal is disabled.
+     */
+    public static Entry Get(String jobId){
+        JobJournal journal = Current;
+        if(journal == null || jobId == null){
+            return null;
+        }
+        synchronized(journal){
+            Entry entry = journal.jobs.get(jobId);
+            return entry == null ? null : entry.copy();
+        }
+    }
+    
+    /**
+     * Retrieves the jobs of the previous runs that have to be printed again.
+     * @return the pending jobs, in acceptance order.
+     */
+    public static List<Entry> GetPending(){
+        JobJournal journal = Current;
+        return journal == null ? new ArrayList<>() : journal.pending();
+    }
+    
+    // Implementation //////////////////////////////////////////////////////////
+    
+    private synchronized List<Entry> pending(){
+        List<Entry> pending = new ArrayList<>();
+        for(Entry entry : jobs.values()){
+            if(entry.request != null && (entry.state == ACCEPTED || entry.state == RENDERED)){
+                pending.add(entry.copy());
+            }
+        }
+        return pending;
+    }
+    
+    private File generationFile(int gen){
+        return new File(basePath.getPath() + "." + gen);
+    }
+    
+    private File currentFile(){
+        return generationFile(generation);
+    }
+    
+    /**
+     * Reads the last generation of the journal and deletes the older ones.
+     */
+    private synchronized void load() throws IOException{
+        File dir = basePath.getParentFile();
+        if(dir != null && !dir.isDirectory() && !dir.mkdirs()){
+            throw new IOException("The journal folder " + dir + " can not be created.");
+        }
+        String prefix = basePath.getName() + ".";
+        List<File> generations = new ArrayList<>();
+        File[] files = dir == null ? null : dir.listFiles();
+        generation = 0;
+        if(files != null){
+            for(File f : files){
+                if(f.getName().startsWith(prefix) && f.getName().substring(prefix.length()).matches("\\d{1,9}")){
+                    generations.add(f);
+                    generation = Math.max(generation, Integer.parseInt(f.getName().substring(prefix.length())));
+                }
+            }
+        }
+        if(generation == 0){
+            generation = 1;
+        }
+        File file = currentFile();
+        end = 0;
+        if(file.exists()){
+            try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+                while(buffer.remaining() >= HEADER_SIZE){
+                    int length = buffer.getInt();
+                    int checksum = buffer.getInt();
+                    if(length <= 0 || length > buffer.remaining()){
+                        break;
+                    }
+                    byte[] body = new byte[length];
+                    buffer.get(body);
+                    if(Checksum(body) != checksum){
+                        // Torn write of the last record
+                        break;
+                    }
+                    apply(body);
+                    end = buffer.position();
+                }
+            }
+        }
+        for(File f : generations){
+            if(!f.equals(file) && !f.delete()){
+                LOG.warn("The old journal file {} could not be deleted.", f);
+            }
+        }
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        // Drops a torn record and the unused space, the new records must be followed by zeros
+        channel.truncate(end);
+        region = null;
+        // The jobs already sent to the printer must not be printed twice
+        List<String> unknown = new ArrayList<>();
+        for(Entry entry : jobs.values()){
+            if(entry.state == SPOOLED){
+                unknown.add(entry.jobId);
+            }
+        }
+        for(String jobId : unknown){
+            record(UNKNOWN, jobId, null, null);
+        }
+    }
+    
+    private synchronized void record(byte state, String jobId, String printerId, String text) throws IOException{
+        Entry entry = jobs.get(jobId);
+        if(entry == null){
+            entry = new Entry(jobId, printerId);
+            jobs.put(jobId, entry);
+        }
+        else if(entry.isFinished()){
+            if(state != ACCEPTED){
+                // Late events of a finished job
+                return;
+            }
+            // A client reusing the id of a finished job
+            finishedCount--;
+        }
+        if(printerId != null){
+            entry.printerId = printerId;
+        }
+        long time = System.currentTimeMillis();
+        append(encode(state, time, jobId, entry.printerId, text));
+        update(entry, state, time, text);
+    }
+    
+    private void apply(byte[] body) throws IOException{
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+        byte state = in.readByte();
+        long time = in.readLong();
+        String jobId = in.readUTF();
+        String printerId = in.readBoolean() ? in.readUTF() : null;
+        String text = null;
+        if(in.readBoolean()){
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            text = new String(bytes, StandardCharsets.UTF_8);
+        }
+        Entry entry = jobs.get(jobId);
+        if(entry == null){
+            entry = new Entry(jobId, printerId);
+            jobs.put(jobId, entry);
+        }
+        else if(entry.isFinished()){
+            finishedCount--;
+        }
+        update(entry, state, time, text);
+    }
+    
+    private void update(Entry entry, byte state, long time, String text){
+        // A replayed job is accepted again, but its time to live still counts from the first acceptance
+        boolean newJob = entry.acceptedAt == 0 || entry.isFinished();
+        entry.state = state;
+        entry.updatedAt = time;
+        switch(state){
+            case ACCEPTED:
+                if(newJob){
+                    entry.acceptedAt = time;
+                }
+                entry.request = text;
+                entry.message = null;
+                break;
+            case FAILED:
+                entry.message = text;
+                entry.request = null;
+                break;
+            case RENDERED:
+                break;
+            default:
+                entry.request = null;
+                break;
+        }
+        if(entry.isFinished()){
+            finishedCount++;
+            if(finishedCount > FINISHED_KEPT){
+                Iterator<Entry> it = jobs.values().iterator();
+                while(finishedCount > FINISHED_KEPT && it.hasNext()){
+                    if(it.next().isFinished()){
+                        it.remove();
+                        finishedCount--;
+                    }
+                }
+            }
+        }
+    }
+    
+    private static byte[] encode(byte state, long time, String jobId, String printerId, String text) throws IOException{
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + (text == null ? 0 : text.length()));
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(state);
+        out.writeLong(time);
+        out.writeUTF(jobId);
+        out.writeBoolean(printerId != null);
+        if(printerId != null){
+            out.writeUTF(printerId);
+        }
+        out.writeBoolean(text != null);
+        if(text != null){
+            byte[] data = text.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(data.length);
+            out.write(data);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+    
+    private static int Checksum(byte[] body){
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        return (int) crc.getValue();
+    }
+    
+    /**
+     * Copies a record into the mapped region, mapping a new region at the end of the file when full.
+     * The region always keeps room for an empty header after the last record, which marks the end.
+     */
+    private void append(byte[] body) throws IOException{
+        int size = HEADER_SIZE + body.length;
+        if(region == null || region.remaining() < size + HEADER_SIZE){
+            if(region != null){
+                region.force();
+            }
+            region = channel.map(FileChannel.MapMode.READ_WRITE, end, Math.max(REGION_SIZE, size + HEADER_SIZE));
+        }
+        region.putInt(body.length);
+        region.putInt(Checksum(body));
+        region.put(body);
+        end += size;
+        dirty = true;
+    }
+    
+    /**
+     * Flushes the appended records to disk and compacts the file when needed. Run by the journal thread.
+     */
+    private void sync(){
+        try{
+            MappedByteBuffer toFlush = null;
+            synchronized(this){
+                if(dirty && region != null){
+                    dirty = false;
+                    toFlush = region;
+                }
+            }
+            if(toFlush != null){
+                toFlush.force();
+            }
+            // A compaction must at least halve the file, or it would run again right away
+            if(end > maxSize && end > 2 * compactedSize){
+                compact();
+            }
+        }
+        catch(IOException | RuntimeException ex){
+            LOG.error("The job journal could not be synced: {}", ex.getLocalizedMessage());
+        }
+    }
+    
+    /**
+     * Writes the current state of the jobs into the next generation of the file and switches to it.
+     */
+    private synchronized void compact() throws IOException{
+        long before = end;
+        File oldFile = currentFile();
+        FileChannel oldChannel = channel;
+        if(region != null){
+            region.force();
+        }
+        generation++;
+        channel = FileChannel.open(currentFile().toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        region = null;
+        end = 0;
+        for(Entry entry : jobs.values()){
+            if(entry.request != null){
+                append(encode(ACCEPTED, entry.acceptedAt, entry.jobId, entry.printerId, entry.request));
+            }
+            if(entry.state != ACCEPTED){
+                append(encode(entry.state, entry.updatedAt, entry.jobId, entry.printerId, entry.state == FAILED ? entry.message : null));
+            }
+        }
+        if(region != null){
+            region.force();
+        }
+        dirty = false;
+        compactedSize = end;
+        oldChannel.close();
+        if(!oldFile.delete()){
+            LOG.warn("The old journal file {} could not be deleted, it will be deleted on the next start.", oldFile);
+        }
+        LOG.info("Job journal compacted from {} to {} bytes.", before, end);
+    }
+    
+    private synchronized void close(){
+        try{
+            if(region != null){
+                region.force();
+            }
+            channel.close();
+        }
+        catch(IOException ex){
+            LOG.error("The job journal could not be closed: {}", ex.getLocalizedMessage());
+        }
+    }
+    
+    /**
+     * The last known state of a job.
+     */
+    public static class Entry {
+        
+        private final String jobId;
+        private String printerId;
+        private byte state = ACCEPTED;
+        private String request = null;
+        private String message = null;
+        private long acceptedAt;
+        private long updatedAt;
+
+        private Entry(String jobId, String printerId) {
+            this.jobId = jobId;
+            this.printerId = printerId;
+        }
+        
+        private Entry copy(){
+            Entry copy = new Entry(jobId, printerId);
+            copy.state = state;
+            copy.request = request;
+            copy.message = message;
+            copy.acceptedAt = acceptedAt;
+            copy.updatedAt = updatedAt;
+            return copy;
+        }
+        
+        private boolean isFinished(){
+            return state == DONE || state == FAILED || state == UNKNOWN || state == EXPIRED || state == CANCELLED;
+        }
+
+        public String getJobId() {
+            return jobId;
+        }
+
+        public String getPrinterId() {
+            return printerId;
+        }
+        
+        /**
+         * Retrieves the request message of a job that was not sent to the printer yet.
+         * @return the request message, or null once the job was sent to the printer.
+         */
+        public String getRequest() {
+            return request;
+        }
+
+        /**
+         * Retrieves the time the job was accepted.
+         * @return the time in milliseconds since the epoch.
+         */
+        public long getAcceptedAt() {
+            return acceptedAt;
+        }
+
+        /**
+         * Retrieves the time of the last transition of the job.
+         * @return the time in milliseconds since the epoch.
+         */
+        public long getUpdatedAt() {
+            return updatedAt;
+        }
+        
+        /**
+         * Retrieves the job status, as defined in {@link PrintResponseMessage}.
+         * @return the request status of the job.
+         */
+        public String getRequestStatus() {
+            switch(state){
+                case ACCEPTED: return PrintResponseMessage.REQUEST_STATUS_RECEIVED;
+                case RENDERED:
+                case SPOOLED: return PrintResponseMessage.REQUEST_STATUS_PROCESSING;
+                case DONE: return PrintResponseMessage.REQUEST_STATUS_DONE;
+                case FAILED: return PrintResponseMessage.REQUEST_STATUS_REJECTED;
+                case EXPIRED: return PrintResponseMessage.REQUEST_STATUS_EXPIRED;
+                case CANCELLED: return PrintResponseMessage.REQUEST_STATUS_CANCELLED;
+                default: return PrintResponseMessage.REQUEST_STATUS_UNKNOWN;
+            }
+        }
+        
+        /**
+         * Retrieves a description of the job status.
+         * @return the status message.
+         */
+        public String getMessage() {
+            switch(state){
+                case ACCEPTED: return "Waiting in the printer queue.";
+                case RENDERED: return "Rendered, waiting for the printer.";
+                case SPOOLED: return "Sent to the printer.";
+                case DONE: return "Printing complete.";
+                case FAILED: return message;
+                case EXPIRED: return "The job expired before it was sent to the printer.";
+                case CANCELLED: return "The job was cancelled.";
+                default: return "Sent to the printer before the service stopped. The outcome is unknown.";
+            }
+        }
+    }
+    
+}
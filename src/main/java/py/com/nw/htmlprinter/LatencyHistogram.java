@@ -0,0 +1,120 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Networkers SRL.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package py.com.nw.htmlprinter;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free latency histogram with logarithmic buckets.
+ * <p>
+ * Each power of two is split in four buckets, so the percentiles are reported with an error
+ * below 20% from one microsecond to several days, using a fixed amount of memory.
+ * @author abiliomp
+ */
+public class LatencyHistogram {
+    
+    private static final int BUCKETS_PER_POWER = 4;
+    private static final double SCALE = BUCKETS_PER_POWER / Math.log(2);
+    private static final int BUCKETS = 40 * BUCKETS_PER_POWER;
+    
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Long::max, 0);
+    
+    /**
+     * Records a measured time.
+     * @param nanos the time in nanoseconds.
+     */
+    public void record(long nanos){
+        long micros = Math.max(1, nanos / 1000);
+        int index = Math.min(BUCKETS - 1, (int) (Math.log(micros) * SCALE));
+        buckets.incrementAndGet(index);
+        count.increment();
+        sum.add(micros);
+        max.accumulate(micros);
+    }
+    
+    public long getCount(){
+        return count.sum();
+    }
+    
+    /**
+     * Retrieves the mean of the recorded times.
+     * @return the mean time in milliseconds.
+     */
+    public double getMean(){
+        long n = count.sum();
+        return n == 0 ? 0 : sum.sum() / 1000.0 / n;
+    }
+    
+    /**
+     * Retrieves the maximum recorded time.
+     * @return the maximum time in milliseconds.
+     */
+    public double getMax(){
+        return max.get() / 1000.0;
+    }
+    
+    /**
+     * Retrieves the time below which the given fraction of the recorded times fall.
+     * @param fraction the fraction, from 0 to 1 (0.95 for the 95th percentile).
+     * @return the upper bound of the percentile's bucket in milliseconds, or 0 if nothing was recorded.
+     */
+    public double getPercentile(double fraction){
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for(int i = 0; i < BUCKETS; i++){
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        if(total == 0){
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++){
+            seen += counts[i];
+            if(seen >= target){
+                return Math.min(Math.exp((i + 1) / SCALE), max.get()) / 1000.0;
+            }
+        }
+        return getMax();
+    }
+    
+    /**
+     * Clears the recorded times.
+     */
+    public void reset(){
+        for(int i = 0; i < BUCKETS; i++){
+            buckets.set(i, 0);
+        }
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+    
+}
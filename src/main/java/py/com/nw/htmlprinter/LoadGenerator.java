@@ -0,0 +1,363 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Networkers SRL.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package py.com.nw.htmlprinter;
+
+import com.google.gson.JsonParseException;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
+
+/**
+ * Load test tool for a running service. Opens a number of websocket clients and sends print
+ * requests at a target rate, then reports the throughput and the latency percentiles.
+ * <p>
+ * Each client has up to "pipeline" requests in flight at a time over its connection, matching the
+ * responses to the requests by their job id. When every client is busy the next request waits for
+ * one, and that wait is included in the send to done latency, so a saturated service shows up as a
+ * growing latency instead of a lower request rate. The received to done latency is the time the
+ * service takes once it has the request.
+ * <p>
+ * Run it against the simulated printers (see the "simulatedPrinters" parameter of the configuration)
+ * to find how many requests per second a computer can render, without real printers:
+ * <code>java -cp HTMLPrinter.jar py.com.nw.htmlprinter.LoadGenerator -p APrinter -c 8 -r 20 -n 1000</code>
+ * @author abiliomp
+ */
+public class LoadGenerator {
+    
+    private static final String HELP_ARG = "--help";
+    private static final String HELP_ARG2 = "-h";
+    private static final String WEBSOCKET_PORT_ARG = "--websocket-port";
+    private static final String WEBSOCKET_PORT_ARG2 = "-w";
+    private static final String CLIENTS_ARG = "--clients";
+    private static final String CLIENTS_ARG2 = "-c";
+    private static final String RATE_ARG = "--rate";
+    private static final String RATE_ARG2 = "-r";
+    private static final String REQUESTS_ARG = "--requests";
+    private static final String REQUESTS_ARG2 = "-n";
+    private static final String PRINTER_ARG = "--printer";
+    private static final String PRINTER_ARG2 = "-p";
+    private static final String HTML_ARG = "--html";
+    private static final String SAME_DOCUMENT_ARG = "--same-document";
+    private static final String TIMEOUT_ARG = "--timeout";
+    private static final String PIPELINE_ARG = "--pipeline";
+    private static final String PIPELINE_ARG2 = "-l";
+    private static final String TTL_ARG = "--ttl";
+    
+    private static final long CONNECT_TIMEOUT = 5000;
+    
+    /**
+     * The clients with room for another request, once per free request slot.
+     */
+    private final BlockingQueue<LoadClient> idleClients = new LinkedBlockingQueue<>();
+    private final LatencyHistogram serviceLatency = new LatencyHistogram();
+    private final LatencyHistogram responseLatency = new LatencyHistogram();
+    private final AtomicInteger done = new AtomicInteger();
+    private final AtomicInteger rejected = new AtomicInteger();
+    private final AtomicInteger expired = new AtomicInteger();
+    private final AtomicInteger otherFinal = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private CountDownLatch pending;
+    
+    public static void main(String[] args) {
+        int port = 3333;
+        int clients = 4;
+        int pipeline = 1;
+        double rate = 10;
+        int requests = 200;
+        long timeout = 60000;
+        Long ttl = null;
+        String printer = null;
+        String htmlFilePath = null;
+        boolean sameDocument = false;
+        boolean showHelp = false;
+        
+        try {
+            for(int i = 0; i < args.length; i++){
+                String arg = args[i];
+                String value = args.length > (i + 1) ? args[i + 1] : null;
+                if(arg.equals(WEBSOCKET_PORT_ARG) || arg.equals(WEBSOCKET_PORT_ARG2)){
+                    port = Integer.parseInt(value);
+                }
+                else if(arg.equals(CLIENTS_ARG) || arg.equals(CLIENTS_ARG2)){
+                    clients = Integer.parseInt(value);
+                }
+                else if(arg.equals(PIPELINE_ARG) || arg.equals(PIPELINE_ARG2)){
+                    pipeline = Integer.parseInt(value);
+                }
+                else if(arg.equals(RATE_ARG) || arg.equals(RATE_ARG2)){
+                    rate = Double.parseDouble(value);
+                }
+                else if(arg.equals(REQUESTS_ARG) || arg.equals(REQUESTS_ARG2)){
+                    requests = Integer.parseInt(value);
+                }
+                else if(arg.equals(PRINTER_ARG) || arg.equals(PRINTER_ARG2)){
+                    printer = value;
+                }
+                else if(arg.equals(HTML_ARG)){
+                    htmlFilePath = value;
+                }
+                else if(arg.equals(TIMEOUT_ARG)){
+                    timeout = Long.parseLong(value);
+                }
+                else if(arg.equals(TTL_ARG)){
+                    ttl = Long.parseLong(value);
+                }
+                else if(arg.equals(SAME_DOCUMENT_ARG)){
+                    sameDocument = true;
+                }
+                else if(arg.equals(HELP_ARG) || arg.equals(HELP_ARG2)){
+                    showHelp = true;
+                }
+            }
+        } catch (NumberFormatException | NullPointerException ex) {
+            System.err.println("[LoadGenerator ERR] Invalid arguments: " + ex.getLocalizedMessage());
+            showHelp = true;
+        }
+        if(showHelp){
+            System.out.println("HTMLPrinter Load Generator Help");
+            System.out.println("Syntax: java -cp HTMLPrinter.jar py.com.nw.htmlprinter.LoadGenerator [option1] [option1 argument]...");
+            System.out.println("Options:");
+            System.out.println("\t-h or --help : displays this help.");
+            System.out.println("\t-w or --websocket-port <port> : the service websocket TCP port number. Default is 3333.");
+            System.out.println("\t-c or --clients <count> : the number of concurrent websocket clients. Default is 4.");
+            System.out.println("\t-l or --pipeline <count> : the number of requests each client can have in flight over its connection. Default is 1.");
+            System.out.println("\t-r or --rate <requests> : the target requests per second, 0 to send as fast as the clients are free. Default is 10.");
+            System.out.println("\t-n or --requests <count> : the number of requests to send. Default is 200.");
+            System.out.println("\t-p or --printer <PrinterId> : the printer id of the requests. Default is the service's default printer.");
+            System.out.println("\t--html <HTMLFilePath> : the document to print. Default is a small receipt.");
+            System.out.println("\t--same-document : sends the very same document every time, so the service can use its render cache. By default each request is made unique.");
+            System.out.println("\t--ttl <milliseconds> : the time to live of each request, after which the service drops it. Default is no limit.");
+            System.out.println("\t--timeout <milliseconds> : the maximum time to wait for each response. Default is 60000.");
+            return;
+        }
+        
+        String html = ServiceWarmup.SAMPLE_HTML;
+        if(htmlFilePath != null){
+            try {
+                html = new String(Files.readAllBytes(new File(htmlFilePath).toPath()), "UTF-8");
+            } catch (IOException ex) {
+                System.err.println("[LoadGenerator ERR] The HTML file could not be read: " + ex.getLocalizedMessage());
+                return;
+            }
+        }
+        
+        LoadGenerator generator = new LoadGenerator();
+        List<LoadClient> connected = new ArrayList<>();
+        try {
+            for(int i = 0; i < clients; i++){
+                LoadClient client = generator.new LoadClient(new URI("ws://localhost:" + port), i);
+                if(!client.connectBlocking(CONNECT_TIMEOUT, TimeUnit.MILLISECONDS)){
+                    System.err.println("[LoadGenerator ERR] Could not connect to the service on port " + port + ".");
+                    return;
+                }
+                connected.add(client);
+            }
+            System.out.println("[LoadGenerator] " + clients + " clients connected with " + pipeline + " requests in flight each, sending " + requests + " requests" + (rate > 0 ? " at " + rate + " per second..." : " as fast as possible..."));
+            generator.run(connected, pipeline, html, printer, ttl, sameDocument, rate, requests, timeout);
+        } catch (URISyntaxException ex) {
+            System.err.println("[LoadGenerator ERR] " + ex.getLocalizedMessage());
+        } catch (InterruptedException ex) {
+            System.err.println("[LoadGenerator ERR] Interrupted.");
+        } finally {
+            for(LoadClient client : connected){
+                client.close();
+            }
+        }
+    }
+    
+    /**
+     * Sends the requests and prints the report.
+     */
+    private void run(List<LoadClient> clients, int pipeline, String html, String printer, Long ttl, boolean sameDocument, double rate, int requests, long timeout) throws InterruptedException{
+        for(int i = 0; i < pipeline; i++){
+            idleClients.addAll(clients);
+        }
+        pending = new CountDownLatch(requests);
+        long interval = rate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / rate) : 0;
+        long start = System.nanoTime();
+        int sent = 0;
+        for(; sent < requests; sent++){
+            long scheduled = start + sent * interval;
+            long wait;
+            while(interval > 0 && (wait = scheduled - System.nanoTime()) > 0){
+                LockSupport.parkNanos(wait);
+            }
+            LoadClient client = idleClients.poll(timeout, TimeUnit.MILLISECONDS);
+            if(client == null){
+                System.err.println("[LoadGenerator ERR] No response within " + timeout + " ms, stopping.");
+                break;
+            }
+            PrintRequestMessage request = new PrintRequestMessage(sameDocument ? html : html + "\n<!-- " + start + "-" + sent + " -->");
+            request.setPrinterId(printer);
+            request.setTtl(ttl);
+            client.send(request, interval > 0 ? scheduled : System.nanoTime());
+        }
+        for(int i = sent; i < requests; i++){
+            pending.countDown();
+        }
+        if(!pending.await(timeout, TimeUnit.MILLISECONDS)){
+            System.err.println("[LoadGenerator ERR] " + pending.getCount() + " requests did not finish within " + timeout + " ms.");
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        
+        System.out.println("[LoadGenerator] Requests: " + sent + " sent, " + done.get() + " done, " + rejected.get() + " rejected, " + expired.get() + " expired, " + otherFinal.get() + " other, " + failed.get() + " failed in " + String.format("%.2f", seconds) + " s.");
+        System.out.println("[LoadGenerator] Throughput: " + String.format("%.2f", done.get() / seconds) + " done per second" + (rate > 0 ? " (target " + rate + ")." : "."));
+        Report("Received to done", serviceLatency);
+        Report("Send to done", responseLatency);
+    }
+    
+    private static void Report(String name, LatencyHistogram histogram){
+        System.out.println(String.format("[LoadGenerator] %s latency (ms): mean %.1f, p50 %.1f, p95 %.1f, p99 %.1f, max %.1f",
+                name, histogram.getMean(), histogram.getPercentile(0.5), histogram.getPercentile(0.95), histogram.getPercentile(0.99), histogram.getMax()));
+    }
+    
+    /**
+     * A websocket client with several requests in flight, told apart by their job id.
+     */
+    private class LoadClient extends WebSocketClient {
+        
+        private final String idPrefix;
+        private final AtomicInteger sequence = new AtomicInteger();
+        private final ConcurrentHashMap<String, Request> inFlight = new ConcurrentHashMap<>();
+
+        LoadClient(URI serverUri, int index) {
+            super(serverUri);
+            idPrefix = "load-" + Long.toString(System.currentTimeMillis(), 36) + "-" + index + "-";
+        }
+        
+        void send(PrintRequestMessage request, long scheduledAt){
+            String jobId = idPrefix + sequence.incrementAndGet();
+            request.setJobId(jobId);
+            inFlight.put(jobId, new Request(scheduledAt));
+            send(request.toJson());
+        }
+
+        @Override
+        public void onOpen(ServerHandshake handshake) {
+        }
+
+        @Override
+        public void onMessage(String message) {
+            PrintResponseMessage prm;
+            try {
+                prm = PrintResponseMessage.fromJson(message);
+            } catch (JsonParseException ex) {
+                System.err.println("[LoadGenerator ERR] Invalid response: " + ex.getLocalizedMessage());
+                return;
+            }
+            if(prm == null || prm.getRequestStatus() == null || prm.getJobId() == null){
+                return;
+            }
+            Request request = inFlight.get(prm.getJobId());
+            if(request == null){
+                return;
+            }
+            long now = System.nanoTime();
+            switch(prm.getRequestStatus()){
+                case PrintResponseMessage.REQUEST_STATUS_RECEIVED:
+                    request.receivedAt = now;
+                    break;
+                case PrintResponseMessage.REQUEST_STATUS_DONE:
+                    if(request.receivedAt != 0){
+                        serviceLatency.record(now - request.receivedAt);
+                    }
+                    responseLatency.record(now - request.sentAt);
+                    done.incrementAndGet();
+                    finish(prm.getJobId());
+                    break;
+                case PrintResponseMessage.REQUEST_STATUS_REJECTED:
+                    System.err.println("[LoadGenerator ERR] Request rejected: " + prm.getMessage());
+                    rejected.incrementAndGet();
+                    finish(prm.getJobId());
+                    break;
+                case PrintResponseMessage.REQUEST_STATUS_EXPIRED:
+                    expired.incrementAndGet();
+                    finish(prm.getJobId());
+                    break;
+                default:
+                    // Cancelled or unknown, the request is over all the same
+                    if(prm.isFinal()){
+                        System.err.println("[LoadGenerator ERR] Request ended as " + prm.getRequestStatus() + ": " + prm.getMessage());
+                        otherFinal.incrementAndGet();
+                        finish(prm.getJobId());
+                    }
+                    break;
+            }
+        }
+        
+        private void finish(String jobId){
+            if(inFlight.remove(jobId) != null){
+                idleClients.offer(this);
+                pending.countDown();
+            }
+        }
+
+        @Override
+        public void onClose(int code, String reason, boolean remote) {
+            for(String jobId : inFlight.keySet()){
+                if(inFlight.remove(jobId) != null){
+                    failed.incrementAndGet();
+                    pending.countDown();
+                }
+            }
+            if(remote){
+                System.err.println("[LoadGenerator ERR] Connection closed by the service. " + reason);
+            }
+        }
+
+        @Override
+        public void onError(Exception ex) {
+            System.err.println("[LoadGenerator ERR] " + ex.getLocalizedMessage());
+        }
+        
+    }
+    
+    /**
+     * The times of a request in flight.
+     */
+    private static class Request {
+        
+        private final long sentAt;
+        private volatile long receivedAt = 0;
+
+        Request(long sentAt) {
+            this.sentAt = sentAt;
+        }
+        
+    }
+    
+}
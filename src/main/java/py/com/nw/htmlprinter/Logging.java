@@ -0,0 +1,168 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Networkers SRL.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package py.com.nw.htmlprinter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import org.apache.log4j.Appender;
+import org.apache.log4j.AsyncAppender;
+import org.apache.log4j.FileAppender;
+import org.apache.log4j.Level;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.PatternLayout;
+import org.slf4j.Logger;
+
+/**
+ * Setup of the service logging, done through slf4j and log4j (see log4j.properties).
+ * <p>
+ * The appenders are moved behind log4j asynchronous appenders with a bounded buffer, so the
+ * request threads only hand the events over and never wait for the console or the disk. When the
+ * buffer is full the new events are discarded and counted instead of blocking the caller. Request
+ * payloads are logged as a short summary, and the debug messages of the request path are sampled.
+ * @author abiliomp
+ */
+public class Logging {
+    
+    /**
+     * The logger of the error log file written with the --error-log option.
+     */
+    public static final String ERROR_LOGGER = "HTMLPrinterErrorLogger";
+    
+    /**
+     * The logger of the service classes, which also writes to the error log file.
+     */
+    private static final String SERVICE_LOGGER = "py.com.nw.htmlprinter";
+    
+    /**
+     * Number of events each asynchronous appender can hold before discarding new ones.
+     */
+    private static final int BUFFER_SIZE = 1024;
+    
+    /**
+     * Number of characters of the payloads included in the summaries.
+     */
+    private static final int PAYLOAD_PREVIEW = 80;
+    
+    private static final String ERROR_LOG_PATTERN = "%d{ISO8601} %-5p [%c{1}] %m%n";
+    
+    private static final AtomicLong DebugCount = new AtomicLong();
+    private static boolean Initialized = false;
+    
+    private Logging(){}
+    
+    /**
+     * Makes the configured appenders asynchronous. The pending events are written when the program exits.
+     */
+    public static synchronized void Init(){
+        if(Initialized){
+            return;
+        }
+        MakeAsync(LogManager.getRootLogger());
+        Enumeration<?> loggers = LogManager.getCurrentLoggers();
+        while(loggers.hasMoreElements()){
+            MakeAsync((org.apache.log4j.Logger) loggers.nextElement());
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(LogManager::shutdown, "LoggingShutdown"));
+        Initialized = true;
+    }
+    
+    private static void MakeAsync(org.apache.log4j.Logger logger){
+        List<Appender> appenders = new ArrayList<>();
+        Enumeration<?> attached = logger.getAllAppenders();
+        while(attached.hasMoreElements()){
+            appenders.add((Appender) attached.nextElement());
+        }
+        if(appenders.isEmpty() || (appenders.size() == 1 && appenders.get(0) instanceof AsyncAppender)){
+            return;
+        }
+        AsyncAppender async = NewAsyncAppender(logger.getName() + "-async");
+        for(Appender appender : appenders){
+            // removeAllAppenders() would close them
+            logger.removeAppender(appender);
+            async.addAppender(appender);
+        }
+        logger.addAppender(async);
+    }
+    
+    private static AsyncAppender NewAsyncAppender(String name){
+        AsyncAppender async = new AsyncAppender();
+        async.setName(name);
+        async.setBufferSize(BUFFER_SIZE);
+        async.setBlocking(false);
+        return async;
+    }
+    
+    /**
+     * Writes the errors of the service and of the {@link #ERROR_LOGGER} logger to a file.
+     * @param file the log file. New entries are appended.
+     * @throws IOException if the file can not be opened.
+     */
+    public static synchronized void EnableErrorLog(File file) throws IOException{
+        FileAppender fileAppender = new FileAppender(new PatternLayout(ERROR_LOG_PATTERN), file.getAbsolutePath(), true);
+        fileAppender.setThreshold(Level.ERROR);
+        AsyncAppender async = NewAsyncAppender("ErrorLog-async");
+        async.addAppender(fileAppender);
+        org.apache.log4j.Logger errorLogger = LogManager.getLogger(ERROR_LOGGER);
+        errorLogger.setAdditivity(false);
+        errorLogger.addAppender(async);
+        LogManager.getLogger(SERVICE_LOGGER).addAppender(async);
+    }
+    
+    /**
+     * Summarizes a request payload for the logs: its length, a checksum to tell payloads apart
+     * and the first characters in a single line.
+     * @param payload the payload.
+     * @return the summary.
+     */
+    public static String Payload(String payload){
+        if(payload == null){
+            return "(none)";
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload.getBytes(StandardCharsets.UTF_8));
+        String preview = payload.length() > PAYLOAD_PREVIEW ? payload.substring(0, PAYLOAD_PREVIEW) + "..." : payload;
+        return payload.length() + " chars, crc32 " + String.format("%08x", crc.getValue()) + ": " + preview.replaceAll("\\s+", " ");
+    }
+    
+    /**
+     * Checks if a debug message of the request path must be logged. Only one of every
+     * "debugLogSampling" messages is logged, as set in the configuration.
+     * @param log the logger of the message.
+     * @return true if debug is enabled for the logger and the message is sampled.
+     */
+    public static boolean IsDebugSampled(Logger log){
+        if(!log.isDebugEnabled()){
+            return false;
+        }
+        int sampling = Configuration.GetDebugLogSampling();
+        return sampling <= 1 || DebugCount.getAndIncrement() % sampling == 0;
+    }
+    
+}
@@ -0,0 +1,416 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Networkers SRL.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package py.com.nw.htmlprinter;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The service metrics registry: the latency of each stage of the print pipeline, the job
+ * counters of each printer, the bytes rendered and the queue gauges.
+ * <p>
+ * The metrics are lock-free, so they can be updated from the request path. They are exposed
+ * through JMX and the {@code stats} websocket request.
+ * @author abiliomp
+ */
+public class Metrics {
+    
+    private static final Logger LOG = LoggerFactory.getLogger(Metrics.class);
+    
+    /**
+     * Parsing of the websocket request.
+     */
+    public static final String STAGE_DECODE = "decode";
+    /**
+     * HTML to PDF conversion (render cache misses only).
+     */
+    public static final String STAGE_RENDER = "render";
+    /**
+     * Time a rendered job waits for its printer.
+     */
+    public static final String STAGE_QUEUE = "queue";
+    /**
+     * Loading of the PDF document for printing, or its conversion to ESC/POS.
+     */
+    public static final String STAGE_LOAD = "load";
+    /**
+     * Submission of the document to the print service.
+     */
+    public static final String STAGE_SPOOL = "spool";
+    /**
+     * Time from the submission until the print service reports the job as completed.
+     */
+    public static final String STAGE_PRINT = "print";
+    /**
+     * Time from the acceptance of the job until its final status.
+     */
+    public static final String STAGE_TOTAL = "total";
+    
+    private static final Map<String, LatencyHistogram> STAGES;
+    static {
+        Map<String, LatencyHistogram> stages = new LinkedHashMap<>();
+        for(String stage : new String[]{STAGE_DECODE, STAGE_RENDER, STAGE_QUEUE, STAGE_LOAD, STAGE_SPOOL, STAGE_PRINT, STAGE_TOTAL}){
+            stages.put(stage, new LatencyHistogram());
+        }
+        STAGES = Collections.unmodifiableMap(stages);
+    }
+    
+    private static final ConcurrentHashMap<String, PrinterCounters> PRINTERS = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, LongSupplier> GAUGES = new ConcurrentHashMap<>();
+    private static final LongAdder BytesRendered = new LongAdder();
+    private static final AtomicInteger ActiveJobs = new AtomicInteger();
+    private static final long StartTime = System.currentTimeMillis();
+    private static boolean Registered = false;
+    
+    private Metrics(){}
+    
+    /**
+     * Records the time spent in a stage of the print pipeline.
+     * @param stage the stage, one of the STAGE constants.
+     * @param nanos the time in nanoseconds.
+     */
+    public static void Record(String stage, long nanos){
+        LatencyHistogram histogram = STAGES.get(stage);
+        if(histogram != null){
+            histogram.record(nanos);
+        }
+    }
+    
+    /**
+     * Records a rendered PDF document.
+     * @param bytes the document size.
+     */
+    public static void Rendered(long bytes){
+        BytesRendered.add(bytes);
+    }
+    
+    /**
+     * Records a job accepted into a printer queue.
+     * @param printerId the printer id.
+     */
+    public static void JobAccepted(String printerId){
+        ActiveJobs.incrementAndGet();
+        Counters(printerId).accepted.increment();
+    }
+    
+    /**
+     * Records the end of an accepted job.
+     * @param printerId the printer id.
+     * @param done true if printed, false if rejected.
+     */
+    public static void JobFinished(String printerId, boolean done){
+        ActiveJobs.decrementAndGet();
+        PrinterCounters counters = Counters(printerId);
+        if(done){
+            counters.done.increment();
+        }
+        else{
+            counters.rejected.increment();
+        }
+    }
+    
+    /**
+     * Records an accepted job dropped before reaching the printer because it expired or was cancelled.
+     * @param printerId the printer id.
+     */
+    public static void JobDropped(String printerId){
+        ActiveJobs.decrementAndGet();
+        Counters(printerId).dropped.increment();
+    }
+    
+    /**
+     * Records a request that expired before its job was accepted.
+     * @param printerId the printer id, or null for the default printer.
+     */
+    public static void RequestDropped(String printerId){
+        Counters(printerId == null ? "" : printerId).dropped.increment();
+    }
+    
+    /**
+     * Records a request rejected before its job was accepted, like when the printer queue is full.
+     * @param printerId the printer id, or null if the printer is not known.
+     */
+    public static void RequestRejected(String printerId){
+        Counters(printerId == null ? "" : printerId).rejected.increment();
+    }
+    
+    /**
+     * Adds a value to be reported with the metrics, like a queue size.
+     * @param name the gauge name.
+     * @param gauge the gauge value supplier.
+     */
+    public static void RegisterGauge(String name, LongSupplier gauge){
+        GAUGES.put(name, gauge);
+    }
+    
+    /**
+     * Registers the metrics in the platform MBean server, if not done yet.
+     */
+    public static synchronized void RegisterMBean(){
+        if(Registered){
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(new Bean(), new ObjectName("py.com.nw.htmlprinter:type=Metrics"));
+            Registered = true;
+        } catch (JMException ex) {
+            LOG.error("The metrics could not be registered in JMX: {}", ex.getLocalizedMessage());
+        }
+    }
+    
+    /**
+     * Retrieves the current value of all the metrics.
+     * @return the metrics snapshot.
+     */
+    public static Snapshot GetSnapshot(){
+        return new Snapshot(GetStages(), GetPrinters(), GetGauges());
+    }
+    
+    /**
+     * Clears the latencies and counters. Gauges are not affected.
+     */
+    public static void Reset(){
+        for(LatencyHistogram histogram : STAGES.values()){
+            histogram.reset();
+        }
+        PRINTERS.clear();
+        BytesRendered.reset();
+    }
+    
+    private static PrinterCounters Counters(String printerId){
+        return PRINTERS.computeIfAbsent(printerId, id -> new PrinterCounters());
+    }
+    
+    private static Map<String, StageStats> GetStages(){
+        Map<String, StageStats> stages = new LinkedHashMap<>();
+        for(Map.Entry<String, LatencyHistogram> stage : STAGES.entrySet()){
+            stages.put(stage.getKey(), new StageStats(stage.getValue()));
+        }
+        return stages;
+    }
+    
+    private static Map<String, PrinterStats> GetPrinters(){
+        Map<String, PrinterStats> printers = new TreeMap<>();
+        for(Map.Entry<String, PrinterCounters> printer : PRINTERS.entrySet()){
+            PrinterCounters c = printer.getValue();
+            printers.put(printer.getKey(), new PrinterStats(c.accepted.sum(), c.done.sum(), c.rejected.sum(), c.dropped.sum()));
+        }
+        return printers;
+    }
+    
+    private static Map<String, Long> GetGauges(){
+        Map<String, Long> gauges = new TreeMap<>();
+        gauges.put("activeJobs", (long) ActiveJobs.get());
+        for(Map.Entry<String, LongSupplier> gauge : GAUGES.entrySet()){
+            gauges.put(gauge.getKey(), gauge.getValue().getAsLong());
+        }
+        return gauges;
+    }
+    
+    private static class PrinterCounters {
+        final LongAdder accepted = new LongAdder();
+        final LongAdder done = new LongAdder();
+        final LongAdder rejected = new LongAdder();
+        final LongAdder dropped = new LongAdder();
+    }
+    
+    /**
+     * The latency statistics of one stage, in milliseconds.
+     */
+    public static class StageStats {
+        
+        private final long count;
+        private final double mean;
+        private final double p50;
+        private final double p95;
+        private final double p99;
+        private final double max;
+
+        StageStats(LatencyHistogram histogram) {
+            count = histogram.getCount();
+            mean = histogram.getMean();
+            p50 = histogram.getPercentile(0.50);
+            p95 = histogram.getPercentile(0.95);
+            p99 = histogram.getPercentile(0.99);
+            max = histogram.getMax();
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public double getP50() {
+            return p50;
+        }
+
+        public double getP95() {
+            return p95;
+        }
+
+        public double getP99() {
+            return p99;
+        }
+
+        public double getMax() {
+            return max;
+        }
+    }
+    
+    /**
+     * The job counters of one printer.
+     */
+    public static class PrinterStats {
+        
+        private final long accepted;
+        private final long done;
+        private final long rejected;
+        private final long dropped;
+
+        PrinterStats(long accepted, long done, long rejected, long dropped) {
+            this.accepted = accepted;
+            this.done = done;
+            this.rejected = rejected;
+            this.dropped = dropped;
+        }
+
+        public long getAccepted() {
+            return accepted;
+        }
+
+        public long getDone() {
+            return done;
+        }
+
+        public long getRejected() {
+            return rejected;
+        }
+        
+        /**
+         * Retrieves the number of jobs that expired or were cancelled before reaching the printer.
+         * @return the dropped jobs.
+         */
+        public long getDropped() {
+            return dropped;
+        }
+    }
+    
+    /**
+     * The value of all the metrics at one time, as sent to the websocket clients.
+     */
+    public static class Snapshot {
+        
+        private final boolean ready = PrintServer.IsReady();
+        private final long uptime = System.currentTimeMillis() - StartTime;
+        private final long bytesRendered = BytesRendered.sum();
+        private final Map<String, StageStats> stages;
+        private final Map<String, PrinterStats> printers;
+        private final Map<String, Long> gauges;
+
+        Snapshot(Map<String, StageStats> stages, Map<String, PrinterStats> printers, Map<String, Long> gauges) {
+            this.stages = stages;
+            this.printers = printers;
+            this.gauges = gauges;
+        }
+
+        public boolean isReady() {
+            return ready;
+        }
+
+        public long getUptime() {
+            return uptime;
+        }
+
+        public long getBytesRendered() {
+            return bytesRendered;
+        }
+
+        public Map<String, StageStats> getStages() {
+            return stages;
+        }
+
+        public Map<String, PrinterStats> getPrinters() {
+            return printers;
+        }
+
+        public Map<String, Long> getGauges() {
+            return gauges;
+        }
+    }
+    
+    private static class Bean implements MetricsMXBean {
+
+        @Override
+        public boolean isReady() {
+            return PrintServer.IsReady();
+        }
+
+        @Override
+        public long getUptime() {
+            return System.currentTimeMillis() - StartTime;
+        }
+
+        @Override
+        public Map<String, StageStats> getStages() {
+            return GetStages();
+        }
+
+        @Override
+        public Map<String, PrinterStats> getPrinters() {
+            return GetPrinters();
+        }
+
+        @Override
+        public Map<String, Long> getGauges() {
+            return GetGauges();
+        }
+
+        @Override
+        public long getBytesRendered() {
+            return BytesRendered.sum();
+        }
+
+        @Override
+        public void reset() {
+            Reset();
+        }
+    }
+    
+}
@@ -0,0 +1,215 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Networkers SRL.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package py.com.nw.htmlprinter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.apache.pdfbox.pdfparser.PDFParser;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+/**
+ * An in memory PDF document that can be handed over to the printing code without copying it.
+ * <p>
+ * The rendered content is written into this buffer and then read through views of its internal
+ * array, so it is neither trimmed with {@link #toByteArray()} nor copied by PDFBox when loaded.
+ * Once rendered, the buffer must not be written again, since it can be shared by several jobs.
+ * @author abiliomp
+ */
+public class PdfBuffer extends ByteArrayOutputStream {
+
+    /**
+     * Creates an empty buffer.
+     * @param size the initial capacity. Sizing it close to the final document size avoids growing copies.
+     */
+    public PdfBuffer(int size) {
+        super(size);
+    }
+    
+    /**
+     * Wraps an existing PDF document, without copying it.
+     * @param content the PDF document bytes.
+     */
+    public PdfBuffer(byte[] content) {
+        super(0);
+        buf = content;
+        count = content.length;
+    }
+    
+    /**
+     * Retrieves the size of the internal array, which can be larger than the content.
+     * @return the allocated bytes.
+     */
+    public synchronized int capacity(){
+        return buf.length;
+    }
+    
+    /**
+     * Shrinks the internal array to the content size, so a buffer kept in memory for a long time
+     * does not hold the spare capacity left by its growth. The streams and byte buffers already
+     * created keep reading the previous array.
+     */
+    public synchronized void trimToSize(){
+        if(buf.length > count){
+            buf = Arrays.copyOf(buf, count);
+        }
+    }
+    
+    /**
+     * Creates a stream that reads the buffer content, without copying it.
+     * @return the input stream.
+     */
+    public synchronized InputStream toInputStream(){
+        return new ByteArrayInputStream(buf, 0, count);
+    }
+    
+    /**
+     * Wraps the buffer content in a read only byte buffer, without copying it.
+     * @return the byte buffer.
+     */
+    public synchronized ByteBuffer toByteBuffer(){
+        return ByteBuffer.wrap(buf, 0, count).asReadOnlyBuffer();
+    }
+    
+    /**
+     * Loads the PDF document with PDFBox, reading directly from the buffer.
+     * @return the loaded document. It must be closed by the caller.
+     * @throws IOException if the content is not a valid PDF document.
+     */
+    public PDDocument load() throws IOException{
+        Reader reader;
+        synchronized(this){
+            reader = new Reader(buf, count);
+        }
+        PDFParser parser = new PDFParser(reader);
+        parser.parse();
+        return parser.getPDDocument();
+    }
+    
+    /**
+     * A read only view of the buffer for the PDFBox parser.
+     */
+    private static class Reader implements RandomAccessRead {
+        
+        private final byte[] data;
+        private final int length;
+        private int position = 0;
+        private boolean closed = false;
+
+        Reader(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return position < length ? data[position++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b) throws IOException {
+            return read(b, 0, b.length);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(position >= length){
+                return -1;
+            }
+            int n = Math.min(len, length - position);
+            System.arraycopy(data, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public long getPosition() throws IOException {
+            return position;
+        }
+
+        @Override
+        public void seek(long newPosition) throws IOException {
+            if(newPosition < 0){
+                throw new IOException("Invalid position " + newPosition);
+            }
+            position = (int) Math.min(newPosition, length);
+        }
+
+        @Override
+        public long length() throws IOException {
+            return length;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closed;
+        }
+
+        @Override
+        public int peek() throws IOException {
+            return position < length ? data[position] & 0xFF : -1;
+        }
+
+        @Override
+        public void rewind(int bytes) throws IOException {
+            if(bytes > position){
+                throw new IOException("Can not rewind " + bytes + " bytes from position " + position);
+            }
+            position -= bytes;
+        }
+
+        @Override
+        public byte[] readFully(int bytes) throws IOException {
+            if(bytes > length - position){
+                throw new EOFException();
+            }
+            byte[] b = new byte[bytes];
+            System.arraycopy(data, position, b, 0, bytes);
+            position += bytes;
+            return b;
+        }
+
+        @Override
+        public boolean isEOF() throws IOException {
+            return position >= length;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return length - position;
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+        }
+        
+    }
+    
+}
@@ -0,0 +1,124 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Networkers SRL.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package py.com.nw.htmlprinter;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonSyntaxException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A print request with several HTML documents for the same printer.
+ * <p>
+ * All the documents are merged into a single PDF document and printed as one job.
+ * @author abiliomp
+ */
+public class PrintBatchRequestMessage {
+    
+    private String type = PrintRequestMessage.TYPE_BATCH;
+    private String printerId = null;
+    private String jobId = null;
+    private Long ttl = null;
+    private String charset = "UTF-8";
+    private List<String> documents = new ArrayList<>();
+
+    public PrintBatchRequestMessage(){}
+    
+    public PrintBatchRequestMessage(List<String> documents){
+        this.documents = documents;
+    }
+
+    public String getType() {
+        return type;
+    }
+    
+    public String getPrinterId() {
+        return printerId;
+    }
+
+    public void setPrinterId(String printerId) {
+        this.printerId = printerId;
+    }
+
+    /**
+     * Retrieves the job id chosen by the client, echoed in every response to the request.
+     * @return the job id, or null to let the service assign one.
+     */
+    public String getJobId() {
+        return jobId;
+    }
+
+    public void setJobId(String jobId) {
+        this.jobId = jobId;
+    }
+
+    /**
+     * Retrieves the time to live of the job, in milliseconds from its arrival to the service.
+     * The job is dropped if it can not be sent to the printer within that time.
+     * @return the time to live, or null if the job does not expire.
+     */
+    public Long getTtl() {
+        return ttl;
+    }
+
+    public void setTtl(Long ttl) {
+        this.ttl = ttl;
+    }
+
+    public Charset getCharset() {
+        return CharsetHelper.parse(charset);
+    }
+
+    public void setCharset(Charset charset) {
+        this.charset = charset.name();
+    }
+    
+    public void setCharset(String charsetName) {
+        this.charset = charsetName;
+    }
+
+    public List<String> getDocuments() {
+        return documents;
+    }
+
+    public void setDocuments(List<String> documents) {
+        this.documents = documents;
+    }
+    
+    public String toJson(){
+        GsonBuilder builder = new GsonBuilder();
+        Gson gson = builder.create();
+        return gson.toJson(this);
+    }
+    
+    public static PrintBatchRequestMessage fromJson(JsonElement message) throws JsonSyntaxException{
+        GsonBuilder builder = new GsonBuilder();
+        Gson gson = builder.create();
+        return gson.fromJson(message, PrintBatchRequestMessage.class);
+    }
+    
+}
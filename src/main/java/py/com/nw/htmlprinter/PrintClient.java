@@ -0,0 +1,138 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Networkers SRL.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package py.com.nw.htmlprinter;
+
+import com.google.gson.JsonParseException;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Websocket client used by the CLI to hand a print request over to a running service.
+ * <p>
+ * The service has its renderer already loaded, so forwarding the request is much faster than
+ * rendering in a new process.
+ * @author abiliomp
+ */
+public class PrintClient extends WebSocketClient {
+    
+    private static final Logger LOG = LoggerFactory.getLogger(PrintClient.class);
+    
+    /**
+     * Time to wait for a local service to accept the connection.
+     */
+    private static final long CONNECT_TIMEOUT = 1000;
+    
+    private final CompletableFuture<PrintResponseMessage> result = new CompletableFuture<>();
+
+    private PrintClient(URI serverUri) {
+        super(serverUri);
+    }
+    
+    /**
+     * Connects to the service running on this computer.
+     * @param port the service websocket port.
+     * @return the connected client, or null if there is no service listening on the port.
+     * @throws InterruptedException if interrupted while connecting.
+     */
+    public static PrintClient Connect(int port) throws InterruptedException{
+        PrintClient client;
+        try {
+            client = new PrintClient(new URI("ws://localhost:" + port));
+        } catch (URISyntaxException ex) {
+            return null;
+        }
+        if(client.connectBlocking(CONNECT_TIMEOUT, TimeUnit.MILLISECONDS)){
+            return client;
+        }
+        client.close();
+        return null;
+    }
+    
+    /**
+     * Sends a print request and waits for its final status.
+     * @param request the print request.
+     * @param timeoutMillis the maximum time to wait for the final status.
+     * @return the final response, either done or rejected.
+     * @throws IOException if the connection is lost before the final status is received.
+     * @throws TimeoutException if the final status is not received in time.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public PrintResponseMessage print(PrintRequestMessage request, long timeoutMillis) throws IOException, TimeoutException, InterruptedException{
+        send(request.toJson());
+        try {
+            return result.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException ex) {
+            throw new IOException(ex.getCause().getLocalizedMessage(), ex.getCause());
+        } finally {
+            close();
+        }
+    }
+
+    @Override
+    public void onOpen(ServerHandshake handshake) {
+        LOG.info("Connected to the print service at {}.", getURI());
+    }
+
+    @Override
+    public void onMessage(String message) {
+        PrintResponseMessage prm;
+        try {
+            prm = PrintResponseMessage.fromJson(message);
+        } catch (JsonParseException ex) {
+            LOG.warn("Invalid response: {}", ex.getLocalizedMessage());
+            return;
+        }
+        if(prm == null || prm.getRequestStatus() == null){
+            // Not about the request, like printer status updates
+            return;
+        }
+        LOG.info("{}: {}", prm.getRequestStatus(), prm.getMessage());
+        if(prm.isFinal()){
+            result.complete(prm);
+        }
+    }
+
+    @Override
+    public void onClose(int code, String reason, boolean remote) {
+        result.completeExceptionally(new IOException("The connection to the print service was closed. " + reason));
+    }
+
+    @Override
+    public void onError(Exception ex) {
+        // Connection errors just mean there is no service running
+        if(isOpen()){
+            LOG.error(ex.getLocalizedMessage());
+        }
+    }
+    
+}
@@ -0,0 +1,431 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Networkers SRL.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package py.com.nw.htmlprinter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.print.PrintException;
+import org.java_websocket.WebSocket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A print request accepted by the service and waiting in a {@link PrinterQueue}.
+ * <p>
+ * The job is queued before its PDF content is generated by the render stage, and it is handed
+ * over to the spool stage once rendered, so the rendering of the next jobs overlaps the spooling
+ * of the previous ones.
+ * <p>
+ * A job with a deadline that has passed, or that was cancelled, is dropped before being rendered
+ * or spooled. Once spooling starts the job can no longer be cancelled.
+ * @author abiliomp
+ */
+public class PrintJob {
+    
+    private static final Logger LOG = LoggerFactory.getLogger(PrintJob.class);
+    
+    /**
+     * Interval between printer status reads while waiting for the printer to be free.
+     */
+    private static final long PRINTER_POLL_INTERVAL = 500;
+    
+    /**
+     * Maximum time to wait for the printer to leave the processing state before spooling anyway.
+     */
+    private static final long PRINTER_MAX_WAIT = 60000;
+    
+    /**
+     * Prefix of the job ids, so the ids of different runs of the service do not collide.
+     */
+    private static final String ID_PREFIX = Long.toString(System.currentTimeMillis(), 36) + "-";
+    private static final AtomicLong IdSequence = new AtomicLong();
+    
+    /**
+     * The jobs in progress by job id, so a client can have several jobs on the same connection
+     * and ask for their status.
+     */
+    private static final ConcurrentHashMap<String, PrintJob> Live = new ConcurrentHashMap<>();
+    
+    private final String jobId;
+    private final WebSocket conn;
+    private final String printerId;
+    private final PrinterConfiguration printerConfig;
+    private final PrinterBackend backend;
+    private final CompletableFuture<PdfBuffer> pdf = new CompletableFuture<>();
+    private volatile List<PrintResponseMessage.DocumentStatus> documents = null;
+    private final AtomicBoolean finished = new AtomicBoolean(false);
+    private volatile PrintResponseMessage status = null;
+    private volatile Long deadline = null;
+    private boolean cancelled = false;
+    private boolean spooling = false;
+    private final long acceptedAt = System.nanoTime();
+    private volatile long renderedAt;
+    private volatile long submittedAt;
+    private volatile long printerWaitDeadline = 0;
+
+    /**
+     * Creates a print job.
+     * @param jobId the job id.
+     * @param conn the client connection, or null for the jobs replayed from the {@link JobJournal}.
+     * @param printerId the printer id.
+     * @param printerConfig the printer configuration.
+     * @param backend the printer backend.
+     */
+    public PrintJob(String jobId, WebSocket conn, String printerId, PrinterConfiguration printerConfig, PrinterBackend backend) {
+        this.jobId = jobId;
+        this.conn = conn;
+        this.printerId = printerId;
+        this.printerConfig = printerConfig;
+        this.backend = backend;
+    }
+
+    /**
+     * Generates a new job id, unique across the runs of the service.
+     * @return the job id.
+     */
+    public static String NextId(){
+        return ID_PREFIX + IdSequence.incrementAndGet();
+    }
+
+    /**
+     * Finds a job in progress.
+     * @param jobId the job id.
+     * @return the job, or null if there is no job in progress with that id.
+     */
+    public static PrintJob Find(String jobId){
+        return jobId == null ? null : Live.get(jobId);
+    }
+    
+    /**
+     * Adds the job to the jobs in progress. The job is removed when it ends.
+     * @return false if there is already a job in progress with the same id.
+     */
+    boolean register(){
+        return Live.putIfAbsent(jobId, this) == null;
+    }
+    
+    /**
+     * Removes a job that could not be queued from the jobs in progress.
+     */
+    void unregister(){
+        Live.remove(jobId, this);
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+    
+    /**
+     * Retrieves the client connection of the job.
+     * @return the connection, or null for a replayed job.
+     */
+    WebSocket getConnection() {
+        return conn;
+    }
+    
+    /**
+     * Sets the time after which the job is dropped instead of printed.
+     * @param deadline the deadline, as a {@link System#nanoTime()} value.
+     */
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+    
+    /**
+     * Checks if the deadline of the job has passed.
+     * @return true if the job expired.
+     */
+    public boolean isExpired(){
+        Long d = deadline;
+        return d != null && System.nanoTime() - d >= 0;
+    }
+    
+    /**
+     * Checks if the job expired or was cancelled, so it does not need to be rendered.
+     * @return true if the job is going to be dropped.
+     */
+    public synchronized boolean isDropped(){
+        return cancelled || isExpired();
+    }
+    
+    /**
+     * Cancels the job, unless it is already being sent to the printer or has ended.
+     * The client of the job is notified with the cancelled status.
+     * @return true if the job was cancelled.
+     */
+    public boolean cancel(){
+        synchronized(this){
+            if(spooling || cancelled || finished.get()){
+                return false;
+            }
+            cancelled = true;
+        }
+        send(new PrintResponseMessage(null, PrintResponseMessage.REQUEST_STATUS_CANCELLED, "The job was cancelled."));
+        return true;
+    }
+    
+    /**
+     * Skips the render stage of a dropped job. The spool stage reports why it was dropped.
+     */
+    void abandon(){
+        pdf.complete(null);
+    }
+    
+    /**
+     * Checks if the job has to be dropped instead of spooled, notifying the client if it expired.
+     * @param spool true to start spooling the job if it is not dropped, so it can not be cancelled.
+     * @return true if the job was dropped.
+     */
+    private boolean drop(boolean spool){
+        synchronized(this){
+            if(cancelled){
+                return true;
+            }
+            if(!isExpired()){
+                spooling = spool;
+                return false;
+            }
+        }
+        LOG.warn("{}: job {} expired before it was sent to the printer.", printerId, jobId);
+        send(new PrintResponseMessage(null, PrintResponseMessage.REQUEST_STATUS_EXPIRED, "The job expired before it was sent to the printer."));
+        return true;
+    }
+    
+    /**
+     * Retrieves the last response sent for the job.
+     * @return the last response, or null if none was sent yet.
+     */
+    public PrintResponseMessage getStatus() {
+        return status;
+    }
+
+    public String getPrinterId() {
+        return printerId;
+    }
+
+    public PrinterConfiguration getPrinterConfig() {
+        return printerConfig;
+    }
+
+    public PrinterBackend getBackend() {
+        return backend;
+    }
+    
+    /**
+     * Sets the status of each document of a batch job.
+     * The documents still in processing status get the final status of the job when it ends.
+     * @param documents the document status list.
+     */
+    public void setDocuments(List<PrintResponseMessage.DocumentStatus> documents) {
+        this.documents = documents;
+    }
+    
+    /**
+     * Sets the generated PDF content, making the job ready to be spooled.
+     * @param content the PDF document.
+     */
+    public void rendered(PdfBuffer content){
+        renderedAt = System.nanoTime();
+        JobJournal.Rendered(jobId);
+        pdf.complete(content);
+    }
+    
+    /**
+     * Marks the job as failed before reaching the printer.
+     * @param cause the error that prevented the PDF generation.
+     */
+    public void failed(Throwable cause){
+        pdf.completeExceptionally(cause);
+    }
+    
+    /**
+     * Checks if the render stage is over for this job, either successfully or not.
+     * @return true if the job can be spooled.
+     */
+    public boolean isRendered(){
+        return pdf.isDone();
+    }
+    
+    /**
+     * Registers an action to be run when the render stage is over for this job.
+     * @param action the action to be run.
+     */
+    void whenRendered(Runnable action){
+        pdf.whenComplete((content, ex) -> action.run());
+    }
+    
+    /**
+     * Checks that the printer is ready and submits the rendered document to the printer.
+     * Called from the spool stage, one job at a time per printer and in queue order. While the
+     * printer is processing previous jobs, as reported by the {@link PrinterStatusMonitor}, this
+     * returns the time to wait before calling it again, so the spooling thread is not kept
+     * waiting. The final response is sent by the print service events, so the spooling thread is
+     * also released as soon as the document is handed over.
+     * @return 0 if the job is done with the spool stage, or the time in milliseconds after which
+     * the printer has to be checked again.
+     */
+    long spool(){
+        PrintResponseMessage prm;
+        PdfBuffer content;
+        try {
+            content = pdf.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return 0;
+        } catch (ExecutionException ex) {
+            if(drop(false)){
+                return 0;
+            }
+            LOG.error("{}: the PDF generation failed: {}", printerId, ex.getCause().getLocalizedMessage());
+            prm = new PrintResponseMessage(PrintResponseMessage.PRINTER_STATUS_ERROR, PrintResponseMessage.REQUEST_STATUS_REJECTED, "An error ocurred during the PDF generation: " + ex.getCause().getLocalizedMessage());
+            send(prm);
+            return 0;
+        }
+        if(printerWaitDeadline == 0){
+            Metrics.Record(Metrics.STAGE_QUEUE, System.nanoTime() - renderedAt);
+            printerWaitDeadline = System.currentTimeMillis() + PRINTER_MAX_WAIT;
+        }
+        
+        PrinterStatusMonitor.PrinterStatus status = PrinterStatusMonitor.Get(printerId, printerConfig);
+        if(!status.isAvailable()){
+            if(drop(false)){
+                return 0;
+            }
+            LOG.warn("{}: printer is not available.", printerId);
+            prm = new PrintResponseMessage(PrintResponseMessage.PRINTER_STATUS_ERROR, PrintResponseMessage.REQUEST_STATUS_REJECTED, "Printer is not available.");
+            send(prm);
+            return 0;
+        }
+        if(status.getPrinterStatus().equals(PrintResponseMessage.PRINTER_STATUS_BUSY) && System.currentTimeMillis() < printerWaitDeadline){
+            return drop(false) ? 0 : PRINTER_POLL_INTERVAL;
+        }
+        // Last chance to drop the job, the printer may have kept it waiting
+        if(drop(true)){
+            return 0;
+        }
+        
+        // Printing part...
+        prm = new PrintResponseMessage(PrintResponseMessage.PRINTER_STATUS_BUSY, PrintResponseMessage.REQUEST_STATUS_PROCESSING, "Printing started.");
+        send(prm);
+
+        PrintJobTracker tracker = new PrintJobTracker(this::printed, this::printFailed);
+        try {
+            long start = System.nanoTime();
+            backend.submit(content, printerConfig, tracker);
+            submittedAt = System.nanoTime();
+            tracker.startTimeout(Configuration.GetPrintCompletionTimeout());
+            JobJournal.Spooled(jobId);
+            Metrics.Record(Metrics.STAGE_SPOOL, submittedAt - start);
+            if(Logging.IsDebugSampled(LOG)){
+                LOG.debug("{}: contents sent to {}.", printerId, backend.getName());
+            }
+        } catch (PrintException ex) {
+            tracker.failed("PrintException occurred: " + ex.getLocalizedMessage());
+        } catch (IOException ex) {
+            tracker.failed("IOException occurred: " + ex.getLocalizedMessage());
+        }
+        return 0;
+    }
+    
+    /**
+     * Called by the print service when the printer completes the job.
+     */
+    private void printed(){
+        if(submittedAt != 0){
+            Metrics.Record(Metrics.STAGE_PRINT, System.nanoTime() - submittedAt);
+        }
+        send(new PrintResponseMessage(PrintResponseMessage.PRINTER_STATUS_FREE, PrintResponseMessage.REQUEST_STATUS_DONE, "Printing complete."));
+    }
+    
+    /**
+     * Called when the job could not be submitted or the print service reports it as failed.
+     * @param message the error message.
+     */
+    private void printFailed(String message){
+        LOG.error("{}: {}", printerId, message);
+        send(new PrintResponseMessage(PrintResponseMessage.PRINTER_STATUS_ERROR, PrintResponseMessage.REQUEST_STATUS_REJECTED, message));
+    }
+    
+    /**
+     * Sends a response to the client, as long as the connection is still open.
+     * Only the first final response of the job is sent.
+     * @param prm the response message.
+     */
+    void send(PrintResponseMessage prm){
+        String requestStatus = prm.getRequestStatus();
+        boolean done = requestStatus.equals(PrintResponseMessage.REQUEST_STATUS_DONE);
+        boolean expiredJob = requestStatus.equals(PrintResponseMessage.REQUEST_STATUS_EXPIRED);
+        boolean cancelledJob = requestStatus.equals(PrintResponseMessage.REQUEST_STATUS_CANCELLED);
+        boolean last = done || expiredJob || cancelledJob || requestStatus.equals(PrintResponseMessage.REQUEST_STATUS_REJECTED);
+        if(last){
+            if(!finished.compareAndSet(false, true)){
+                return;
+            }
+            if(expiredJob || cancelledJob){
+                Metrics.JobDropped(printerId);
+            }
+            else{
+                Metrics.Record(Metrics.STAGE_TOTAL, System.nanoTime() - acceptedAt);
+                Metrics.JobFinished(printerId, done);
+            }
+            if(done){
+                JobJournal.Done(jobId);
+            }
+            else if(expiredJob){
+                JobJournal.Expired(jobId);
+            }
+            else if(cancelledJob){
+                JobJournal.Cancelled(jobId);
+            }
+            else{
+                JobJournal.Failed(jobId, prm.getMessage());
+            }
+            Live.remove(jobId, this);
+        }
+        else if(finished.get()){
+            return;
+        }
+        List<PrintResponseMessage.DocumentStatus> docs = documents;
+        if(docs != null && last){
+            for(PrintResponseMessage.DocumentStatus ds : docs){
+                if(ds.getRequestStatus().equals(PrintResponseMessage.REQUEST_STATUS_PROCESSING)){
+                    ds.setRequestStatus(prm.getRequestStatus());
+                    ds.setMessage(prm.getMessage());
+                }
+            }
+            prm.setDocuments(docs);
+        }
+        prm.setJobId(jobId);
+        status = prm;
+        if(conn != null && conn.isOpen()){
+            conn.send(prm.toJson());
+        }
+    }
+    
+}
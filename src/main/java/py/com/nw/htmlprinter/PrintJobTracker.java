@@ -0,0 +1,167 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Networkers SRL.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package py.com.nw.htmlprinter;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import javax.print.event.PrintJobEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Follows a job submitted to a print service and reports its outcome through callbacks,
+ * so the submitting thread does not have to wait for the printer.
+ * <p>
+ * Only the first outcome is reported: a job may be completed and then have no more events,
+ * or fail and also throw an exception, but the callbacks are run just once.
+ * <p>
+ * Some drivers never report the end of a job. With a timeout started, a job without an outcome
+ * is considered done if its data was transferred to the printer, and failed otherwise.
+ * @author abiliomp
+ */
+public class PrintJobTracker extends JobCompleteMonitor {
+    
+    private static final Logger LOG = LoggerFactory.getLogger(PrintJobTracker.class);
+    
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r);
+        t.setName("PrintJobTracker");
+        t.setDaemon(true);
+        return t;
+    });
+    
+    private final AtomicBoolean finished = new AtomicBoolean(false);
+    private volatile boolean transferred = false;
+    private volatile ScheduledFuture<?> timeout = null;
+    private final Runnable onDone;
+    private final Consumer<String> onFailed;
+
+    /**
+     * @param onDone called when the print service completes the job.
+     * @param onFailed called with an error message when the job fails or is canceled.
+     */
+    public PrintJobTracker(Runnable onDone, Consumer<String> onFailed) {
+        this.onDone = onDone;
+        this.onFailed = onFailed;
+    }
+    
+    @Override
+    public void printDataTransferCompleted(PrintJobEvent pje) {
+        super.printDataTransferCompleted(pje);
+        transferred = true;
+    }
+    
+    @Override
+    public void printJobCompleted(PrintJobEvent pje) {
+        super.printJobCompleted(pje);
+        done();
+    }
+    
+    /**
+     * Most print services do not follow the job once the data is sent, so no more events
+     * means the job was handed over to the printer successfully.
+     */
+    @Override
+    public void printJobNoMoreEvents(PrintJobEvent pje) {
+        super.printJobNoMoreEvents(pje);
+        done();
+    }
+    
+    @Override
+    public void printJobFailed(PrintJobEvent pje) {
+        super.printJobFailed(pje);
+        failed("The print service reported an error while printing.");
+    }
+    
+    @Override
+    public void printJobCanceled(PrintJobEvent pje) {
+        super.printJobCanceled(pje);
+        failed("The print job was canceled.");
+    }
+    
+    /**
+     * Checks if the outcome of the job has been reported.
+     * @return true if the job is done or failed.
+     */
+    public boolean isFinished(){
+        return finished.get();
+    }
+    
+    /**
+     * Ends the job if the print service does not report its outcome in time.
+     * @param millis the time to wait for the outcome, in milliseconds. 0 waits forever.
+     */
+    public void startTimeout(long millis){
+        if(millis <= 0 || finished.get()){
+            return;
+        }
+        timeout = TIMER.schedule(this::timedOut, millis, TimeUnit.MILLISECONDS);
+        if(finished.get()){
+            timeout.cancel(false);
+        }
+    }
+    
+    private void timedOut(){
+        if(transferred){
+            LOG.warn("The print service did not report the end of a job, it is considered done since its data was sent.");
+            done();
+        }
+        else{
+            failed("The print service did not report the end of the job in time.");
+        }
+    }
+    
+    /**
+     * Reports a failure that happened outside the print service, like an error submitting the job.
+     * @param message the error message.
+     */
+    public void failed(String message){
+        if(finished.compareAndSet(false, true)){
+            cancelTimeout();
+            onFailed.accept(message);
+        }
+    }
+    
+    /**
+     * Reports that the job was completed, for backends that do not use a print service.
+     */
+    public void done(){
+        if(finished.compareAndSet(false, true)){
+            cancelTimeout();
+            onDone.run();
+        }
+    }
+    
+    private void cancelTimeout(){
+        ScheduledFuture<?> t = timeout;
+        if(t != null){
+            t.cancel(false);
+        }
+    }
+    
+}
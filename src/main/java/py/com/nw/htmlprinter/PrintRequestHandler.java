@@ -23,23 +23,22 @@
  */
 package py.com.nw.htmlprinter;
 
-import com.google.gson.JsonSyntaxException;
-import com.itextpdf.html2pdf.ConverterProperties;
-import com.itextpdf.html2pdf.HtmlConverter;
-import com.itextpdf.kernel.events.PdfDocumentEvent;
-import com.itextpdf.kernel.geom.PageSize;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
 import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfReader;
 import com.itextpdf.kernel.pdf.PdfWriter;
-import java.awt.print.PrinterException;
-import java.awt.print.PrinterJob;
-import java.io.ByteArrayOutputStream;
+import com.itextpdf.kernel.utils.PdfMerger;
 import java.io.IOException;
-import javax.print.PrintService;
-import javax.print.attribute.standard.PrinterIsAcceptingJobs;
-import javax.print.attribute.standard.PrinterState;
-import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.printing.PDFPageable;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
 import org.java_websocket.WebSocket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  *
@@ -47,144 +46,494 @@ import org.java_websocket.WebSocket;
  */
 public class PrintRequestHandler implements Runnable{
     
+    private static final Logger LOG = LoggerFactory.getLogger(PrintRequestHandler.class);
+    
     private WebSocket conn;
     private String message;
+    private String jobId = null;
+    private Long ttl = null;
+    private final long receivedAt;
+    private PrintResponseMessage rejection = null;
 
     public PrintRequestHandler(WebSocket conn, String message) {
         this.conn = conn;
         this.message = message;
+        this.receivedAt = System.nanoTime();
+    }
+    
+    /**
+     * Creates a handler that replays a job recorded in the {@link JobJournal} before a restart.
+     * The job keeps its id and its time to live, and has no client to answer to.
+     * @param message the request message of the job.
+     * @param jobId the job id.
+     * @param acceptedAt the time the job was first accepted, in milliseconds since the epoch.
+     */
+    public PrintRequestHandler(String message, String jobId, long acceptedAt) {
+        this.conn = null;
+        this.message = message;
+        this.jobId = jobId;
+        this.receivedAt = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(Math.max(0, System.currentTimeMillis() - acceptedAt));
     }
 
     @Override
     public void run() {
-        String charset = null;
         PrintResponseMessage prm;
-        System.out.println("[PrintServer] Message received from " + conn + ": \n" + message);
-        System.out.println("[PrintServer] Decoding PrintRequest...");
+        long start = System.nanoTime();
+        if(Logging.IsDebugSampled(LOG)){
+            LOG.debug("Message received from {}: {}", source(), Logging.Payload(message));
+        }
         try{
-            PrintRequestMessage pr = PrintRequestMessage.fromJson(message);
-            if(pr != null){
-                System.out.println("[PrintServer] PrintRequest decoded.");
-                // Check the printer config
-                PrinterConfiguration printerConfig;
-                if(pr.getPrinterId() != null){
-                    System.out.println("[PrintServer] Checking for " + pr.getPrinterId() + " printer ID configuration...");
-                    printerConfig = Configuration.GetPrinter(pr.getPrinterId());
+            JsonElement json = JsonParser.parseString(message);
+            String type = PrintRequestMessage.TYPE_PRINT;
+            if(json.isJsonObject() && json.getAsJsonObject().has("type")){
+                type = json.getAsJsonObject().get("type").getAsString();
+            }
+            if(json.isJsonObject() && json.getAsJsonObject().has("jobId")){
+                JsonElement jobIdJson = json.getAsJsonObject().get("jobId");
+                if(!jobIdJson.isJsonPrimitive()){
+                    // Null, object or array: the request has no id and the service assigns one
+                    json.getAsJsonObject().remove("jobId");
                 }
-                else{
-                    System.out.println("[PrintServer] Checking default printer configuration...");
-                    printerConfig = Configuration.GetDefaultPrinter();
+                else if(jobId == null){
+                    // Echoed in every response, so the client can match them to its requests
+                    jobId = jobIdJson.getAsString();
                 }
-                if(printerConfig == null){
-                    System.err.println("[PrintServer] The printer was not found in the configuration of this service.");
-                    prm = new PrintResponseMessage(PrintResponseMessage.PRINTER_STATUS_ERROR, PrintResponseMessage.REQUEST_STATUS_REJECTED, "The printer was not found in the configuration of this service.");
-                    conn.send(prm.toJson());
+            }
+            if(json.isJsonObject() && json.getAsJsonObject().has("ttl") && !json.getAsJsonObject().get("ttl").isJsonNull()){
+                JsonElement ttlJson = json.getAsJsonObject().get("ttl");
+                ttl = ParseTtl(ttlJson);
+                if(ttl == null){
+                    LOG.warn("Invalid ttl from {}: {}", source(), ttlJson);
+                    prm = new PrintResponseMessage(PrintResponseMessage.PRINTER_STATUS_ERROR, PrintResponseMessage.REQUEST_STATUS_REJECTED, "Invalid ttl: " + ttlJson + ". It must be a number of milliseconds, zero or greater.");
+                    send(prm);
+                    return;
                 }
-                else{
-                    // Printer config found. Check the printer's status
-                    System.out.println("[PrintServer] Configuration found. Printer name: " + printerConfig.getPrinterName());
-                    PrintService printerService = PrintServiceHelper.find(printerConfig.getPrinterName());
-                    if(printerService == null){
-                        System.err.println("[PrintServer] Printer not found. Check the configuration and server setup.");
-                        prm = new PrintResponseMessage(PrintResponseMessage.PRINTER_STATUS_ERROR, PrintResponseMessage.REQUEST_STATUS_REJECTED, "Printer not found. Check the configuration and server setup.");
-                        conn.send(prm.toJson());       
+            }
+            switch(type){
+                case PrintRequestMessage.TYPE_PRINT:
+                    PrintRequestMessage pr = PrintRequestMessage.fromJson(json);
+                    if(pr != null){
+                        Metrics.Record(Metrics.STAGE_DECODE, System.nanoTime() - start);
+                        handlePrint(pr);
                     }
-                    else{
-                        PrinterState prnState = (PrinterState) printerService.getAttribute(PrinterState.class);
-                        if(prnState == PrinterState.STOPPED){
-                            System.err.println("[PrintServer] Printer is not available.");
-                            prm = new PrintResponseMessage(PrintResponseMessage.PRINTER_STATUS_ERROR, PrintResponseMessage.REQUEST_STATUS_REJECTED, "Printer is not available.");
-                            conn.send(prm.toJson());
-                        }
-                        if(prnState == PrinterState.PROCESSING){
-                            System.err.println("[PrintServer] Printer is processing previous jobs.");
-                            prm = new PrintResponseMessage(PrintResponseMessage.PRINTER_STATUS_BUSY, PrintResponseMessage.REQUEST_STATUS_REJECTED, "Printer is processing previous jobs.");
-                            conn.send(prm.toJson());
-                        }
-                        else if((PrinterIsAcceptingJobs) (printerService.getAttribute(PrinterIsAcceptingJobs.class)) == PrinterIsAcceptingJobs.NOT_ACCEPTING_JOBS){
-                                System.err.println("[PrintServer] Printer is not accepting new jobs.");
-                                prm = new PrintResponseMessage(PrintResponseMessage.PRINTER_STATUS_ERROR, PrintResponseMessage.REQUEST_STATUS_REJECTED, "Printer is not accepting new jobs.");
-                                conn.send(prm.toJson());
+                    break;
+                case PrintRequestMessage.TYPE_BATCH:
+                    PrintBatchRequestMessage br = PrintBatchRequestMessage.fromJson(json);
+                    if(br != null){
+                        Metrics.Record(Metrics.STAGE_DECODE, System.nanoTime() - start);
+                        handleBatch(br);
+                    }
+                    break;
+                case PrintRequestMessage.TYPE_TEMPLATE:
+                case PrintRequestMessage.TYPE_REGISTER_TEMPLATE:
+                    TemplateRequestMessage tr = TemplateRequestMessage.fromJson(json);
+                    if(tr != null){
+                        Metrics.Record(Metrics.STAGE_DECODE, System.nanoTime() - start);
+                        if(type.equals(PrintRequestMessage.TYPE_TEMPLATE)){
+                            handleTemplate(tr);
                         }
                         else{
-                            // Printer is idle and ready to print //////////////
-                            System.out.println("[PrintServer] OK! Request received and printer available.");
-                            prm = new PrintResponseMessage(PrintResponseMessage.PRINTER_STATUS_FREE, PrintResponseMessage.REQUEST_STATUS_RECEIVED, "Request received and printer available.");
-                            conn.send(prm.toJson());
-                            // Check the charset
-                            charset = pr.getCharset().name();
-                            
-                            System.out.println("[PrintService] Generating PDF content...");
-                            PdfWriter pdfW = null;
-                            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                            pdfW = new PdfWriter(baos);
-                            PdfDocument pdfDoc = new PdfDocument(pdfW);
-                            PageOrientationsEventHandler eventHandler = new PageOrientationsEventHandler();
-                            pdfDoc.addEventHandler(PdfDocumentEvent.START_PAGE, eventHandler);
-                            PageSize pz = new PageSize((float) Configuration.mmToDots(printerConfig.getPaperWidth()), (float) Configuration.mmToDots(printerConfig.getPaperHeight()));
-                            
-                            switch(printerConfig.getPageOrientation()){
-                                case LANDSCAPE:
-                                    eventHandler.setOrientation(PageOrientationsEventHandler.LANDSCAPE);
-                                    pz = pz.rotate();
-                                    break;
-                                case INVERTEDPORTRAIT:
-                                    eventHandler.setOrientation(PageOrientationsEventHandler.INVERTEDPORTRAIT);
-                                    break;
-                                case SEASCAPE:
-                                    eventHandler.setOrientation(PageOrientationsEventHandler.SEASCAPE);
-                                    pz = pz.rotate();
-                                    break;
-                                default:
-                                    eventHandler.setOrientation(PageOrientationsEventHandler.PORTRAIT);
-                                    break;
-                            }
-                            pz.applyMargins(printerConfig.getMarginTop(), printerConfig.getMarginRight(), printerConfig.getMarginBottom(), printerConfig.getMarginLeft(), false);
-                            pdfDoc.setDefaultPageSize(pz);
-                            ConverterProperties convP = new ConverterProperties();
-                            convP.setCharset(charset);
-                            HtmlConverter.convertToPdf(pr.getHtml(), pdfDoc, convP);
-                            System.out.println("[PrintService] PDF contents generated!");   
-                            
-                            // Printing part...
-                            System.out.println("[PrintService] Sending contents to printer...");
-                            prm = new PrintResponseMessage(PrintResponseMessage.PRINTER_STATUS_BUSY, PrintResponseMessage.REQUEST_STATUS_PROCESSING, "Printing started.");
-                            conn.send(prm.toJson());
-                            
-                            try {
-                                PDDocument document = PDDocument.load(baos.toByteArray());
-                                PrinterJob job = PrinterJob.getPrinterJob();
-                                job.setPageable(new PDFPageable(document));
-                                try { 
-                                    job.setPrintService(printerService);
-                                    job.print();
-                                    System.out.println("[PrintService] Printing complete.");
-                                    prm = new PrintResponseMessage(PrintResponseMessage.PRINTER_STATUS_FREE, PrintResponseMessage.REQUEST_STATUS_DONE, "Printing complete.");
-                                    conn.send(prm.toJson());
-                                } catch (PrinterException ex) {
-                                    String errMsg = "[PrintService ERR] PrintException: " + ex.getLocalizedMessage();
-                                    System.err.println(errMsg);
-                                    prm = new PrintResponseMessage(PrintResponseMessage.PRINTER_STATUS_ERROR, PrintResponseMessage.REQUEST_STATUS_REJECTED, "PrintException occurred: " + ex.getLocalizedMessage());
-                                    conn.send(prm.toJson());
-                                }
-                            } catch (IOException ex) {
-                                String errMsg = "[PrintService ERR] " + ex.getLocalizedMessage();
-                                System.err.println(errMsg);
-                                prm = new PrintResponseMessage(PrintResponseMessage.PRINTER_STATUS_ERROR, PrintResponseMessage.REQUEST_STATUS_REJECTED, "IOException occurred: " + ex.getLocalizedMessage());
-                                conn.send(prm.toJson());
-                            }
-                            ////////////////////////////////////////////////////
+                            handleRegisterTemplate(tr);
                         }
                     }
-                }
+                    break;
+                case PrintRequestMessage.TYPE_SUBSCRIBE:
+                    PrintRequestMessage sr = PrintRequestMessage.fromJson(json);
+                    if(sr.getPrinterId() != null && Configuration.GetPrinter(sr.getPrinterId()) == null){
+                        prm = new PrintResponseMessage(PrintResponseMessage.PRINTER_STATUS_ERROR, PrintResponseMessage.REQUEST_STATUS_REJECTED, "The printer was not found in the configuration of this service.");
+                        send(prm);
+                    }
+                    else{
+                        LOG.info("Printer status subscription from {}.", conn.getRemoteSocketAddress());
+                        PrinterStatusMonitor.Subscribe(conn, sr.getPrinterId());
+                    }
+                    break;
+                case PrintRequestMessage.TYPE_UNSUBSCRIBE:
+                    PrinterStatusMonitor.Unsubscribe(conn);
+                    prm = new PrintResponseMessage(null, PrintResponseMessage.REQUEST_STATUS_DONE, "Printer status subscription removed.");
+                    send(prm);
+                    break;
+                case PrintRequestMessage.TYPE_JOB_STATUS:
+                    handleJobStatus(PrintRequestMessage.fromJson(json));
+                    break;
+                case PrintRequestMessage.TYPE_CANCEL:
+                    handleCancel(PrintRequestMessage.fromJson(json));
+                    break;
+                case PrintRequestMessage.TYPE_STATS:
+                    prm = new PrintResponseMessage(null, PrintResponseMessage.REQUEST_STATUS_DONE, "Service statistics.");
+                    prm.setStats(Metrics.GetSnapshot());
+                    send(prm);
+                    break;
+                default:
+                    LOG.warn("Unknown request type: {}", type);
+                    prm = new PrintResponseMessage(PrintResponseMessage.PRINTER_STATUS_ERROR, PrintResponseMessage.REQUEST_STATUS_REJECTED, "Unknown request type: " + type);
+                    send(prm);
+                    break;
             }
         }
-        catch(JsonSyntaxException ex){
+        catch(JsonParseException | IllegalStateException | UnsupportedOperationException | NumberFormatException ex){
+            LOG.warn("Invalid request from {}: {}", source(), ex.getLocalizedMessage());
             prm = new PrintResponseMessage(PrintResponseMessage.PRINTER_STATUS_ERROR, PrintResponseMessage.REQUEST_STATUS_REJECTED, "An error ocurred during the message processing: " + ex.getLocalizedMessage());
+            send(prm);
+        }
+        finally{
+            if(conn == null && rejection != null){
+                // A replayed job that could not be queued again
+                if(rejection.getRequestStatus().equals(PrintResponseMessage.REQUEST_STATUS_EXPIRED)){
+                    JobJournal.Expired(jobId);
+                }
+                else{
+                    JobJournal.Failed(jobId, rejection.getMessage());
+                }
+            }
+        }
+    }
+    
+    /**
+     * Reads the time to live of a request.
+     * @param ttlJson the ttl value of the request.
+     * @return the time to live in milliseconds, or null if the value is not a number or is negative.
+     */
+    private static Long ParseTtl(JsonElement ttlJson){
+        if(!ttlJson.isJsonPrimitive() || !ttlJson.getAsJsonPrimitive().isNumber()){
+            return null;
+        }
+        try{
+            long ttl = ttlJson.getAsLong();
+            return ttl >= 0 ? ttl : null;
+        }
+        catch(NumberFormatException ex){
+            return null;
+        }
+    }
+    
+    /**
+     * Answers with the status of a job in progress, or with its last status recorded in the
+     * {@link JobJournal} once it has ended.
+     */
+    private void handleJobStatus(PrintRequestMessage sr){
+        PrintResponseMessage prm;
+        PrintJob job = PrintJob.Find(sr.getJobId());
+        PrintResponseMessage last = job == null ? null : job.getStatus();
+        JobJournal.Entry entry = job == null ? JobJournal.Get(sr.getJobId()) : null;
+        if(job != null){
+            if(last == null){
+                prm = new PrintResponseMessage(null, PrintResponseMessage.REQUEST_STATUS_RECEIVED, "Waiting in the printer queue.");
+            }
+            else{
+                prm = new PrintResponseMessage(last.getPrinterStatus(), last.getRequestStatus(), last.getMessage());
+            }
+            prm.setPrinterId(job.getPrinterId());
+        }
+        else if(entry != null){
+            prm = new PrintResponseMessage(null, entry.getRequestStatus(), entry.getMessage());
+            prm.setPrinterId(entry.getPrinterId());
+        }
+        else{
+            prm = new PrintResponseMessage(null, PrintResponseMessage.REQUEST_STATUS_REJECTED, "Job not found.");
+        }
+        send(prm);
+    }
+    
+    /**
+     * Cancels a job that was not sent to the printer yet. The client of the job receives the
+     * cancelled status, which is also the answer when the job was sent on this connection.
+     */
+    private void handleCancel(PrintRequestMessage cr){
+        PrintResponseMessage prm;
+        PrintJob job = PrintJob.Find(cr.getJobId());
+        if(job == null){
+            prm = new PrintResponseMessage(null, PrintResponseMessage.REQUEST_STATUS_REJECTED, "Job not found or already ended.");
+        }
+        else if(job.cancel()){
+            LOG.info("{}: job {} cancelled.", job.getPrinterId(), job.getJobId());
+            if(job.getConnection() == conn){
+                return;
+            }
+            prm = new PrintResponseMessage(null, PrintResponseMessage.REQUEST_STATUS_CANCELLED, "The job was cancelled.");
+            prm.setPrinterId(job.getPrinterId());
+        }
+        else{
+            // Answers with the current status of the job, which goes on
+            PrintResponseMessage last = job.getStatus();
+            prm = new PrintResponseMessage(last == null ? null : last.getPrinterStatus(), last == null ? PrintResponseMessage.REQUEST_STATUS_PROCESSING : last.getRequestStatus(), "The job was already sent to the printer and can not be cancelled.");
+            prm.setPrinterId(job.getPrinterId());
+        }
+        send(prm);
+    }
+    
+    /**
+     * Checks if a job expired or was cancelled before its render stage, so it is not rendered.
+     * @param job the job.
+     * @return true if the job has to be rendered.
+     */
+    private static boolean renderable(PrintJob job){
+        if(job.isDropped()){
+            job.abandon();
+            return false;
+        }
+        return true;
+    }
+    
+    private void handlePrint(PrintRequestMessage pr){
+        PrintJob job = accept(pr.getPrinterId());
+        if(job == null || !renderable(job)){
+            return;
+        }
+        // Render stage. The spool stage takes the job from the printer queue once rendered.
+        try{
+            // Check the charset
+            String charset = pr.getCharset().name();
+            job.rendered(job.getPrinterConfig().getRenderProfile().render(pr.getHtml(), charset, pr.getBaseUri()));
+        }
+        catch(RuntimeException ex){
+            job.failed(ex);
+        }
+    }
+    
+    private void handleTemplate(TemplateRequestMessage tr){
+        HtmlTemplate template = tr.getTemplateId() == null ? null : TemplateRegistry.Get(tr.getTemplateId());
+        if(template == null){
+            LOG.warn("Template not found: {}", tr.getTemplateId());
+            PrintResponseMessage prm = new PrintResponseMessage(PrintResponseMessage.PRINTER_STATUS_ERROR, PrintResponseMessage.REQUEST_STATUS_REJECTED, "Template not found: " + tr.getTemplateId());
+            send(prm);
+            return;
+        }
+        PrintJob job = accept(tr.getPrinterId());
+        if(job == null || !renderable(job)){
+            return;
+        }
+        // Render stage. The spool stage takes the job from the printer queue once rendered.
+        try{
+            String charset = tr.getCharset().name();
+            job.rendered(render(template.render(tr.getData()), charset, job.getPrinterConfig()));
+        }
+        catch(RuntimeException ex){
+            job.failed(ex);
+        }
+    }
+    
+    private void handleRegisterTemplate(TemplateRequestMessage tr){
+        PrintResponseMessage prm;
+        if(tr.getTemplateId() == null || tr.getHtml() == null){
+            prm = new PrintResponseMessage(null, PrintResponseMessage.REQUEST_STATUS_REJECTED, "The template id and HTML source are required.");
+            send(prm);
+            return;
+        }
+        try{
+            TemplateRegistry.Register(tr.getTemplateId(), tr.getHtml());
+            LOG.info("Template registered: {}", tr.getTemplateId());
+            prm = new PrintResponseMessage(null, PrintResponseMessage.REQUEST_STATUS_DONE, "Template registered.");
+        }
+        catch(IllegalArgumentException ex){
+            LOG.warn("Invalid template {}: {}", tr.getTemplateId(), ex.getLocalizedMessage());
+            prm = new PrintResponseMessage(null, PrintResponseMessage.REQUEST_STATUS_REJECTED, "Invalid template: " + ex.getLocalizedMessage());
+        }
+        send(prm);
+    }
+    
+    private void handleBatch(PrintBatchRequestMessage br){
+        List<String> documents = br.getDocuments();
+        if(documents == null || documents.isEmpty()){
+            LOG.warn("The batch request has no documents.");
+            PrintResponseMessage prm = new PrintResponseMessage(PrintResponseMessage.PRINTER_STATUS_ERROR, PrintResponseMessage.REQUEST_STATUS_REJECTED, "The batch request has no documents.");
+            send(prm);
+            return;
+        }
+        PrintJob job = accept(br.getPrinterId());
+        if(job == null || !renderable(job)){
+            return;
+        }
+        // Render stage. Every document is rendered in parallel and then merged into a single PDF.
+        try{
+            String charset = br.getCharset().name();
+            PrinterConfiguration printerConfig = job.getPrinterConfig();
+            PdfBuffer[] parts = new PdfBuffer[documents.size()];
+            String[] errors = new String[documents.size()];
+            IntStream.range(0, documents.size()).parallel().forEach(i -> {
+                try{
+                    parts[i] = render(documents.get(i), charset, printerConfig);
+                }
+                catch(RuntimeException ex){
+                    LOG.error("Batch document {}: {}", i, ex.getLocalizedMessage());
+                    errors[i] = ex.getLocalizedMessage();
+                }
+            });
+            List<PrintResponseMessage.DocumentStatus> statusList = new ArrayList<>();
+            for(int i = 0; i < documents.size(); i++){
+                if(parts[i] != null){
+                    statusList.add(new PrintResponseMessage.DocumentStatus(i, PrintResponseMessage.REQUEST_STATUS_PROCESSING, "PDF content generated."));
+                }
+                else{
+                    statusList.add(new PrintResponseMessage.DocumentStatus(i, PrintResponseMessage.REQUEST_STATUS_REJECTED, "An error ocurred during the PDF generation: " + errors[i]));
+                }
+            }
+            job.setDocuments(statusList);
+            job.rendered(merge(parts));
+        }
+        catch(RuntimeException ex){
+            job.failed(ex);
+        }
+    }
+    
+    /**
+     * Checks the requested printer and adds a new job to its queue.
+     * The client is notified of the result in both cases.
+     * @param requestedPrinterId the printer id of the request or null for the default printer.
+     * @return the queued job, or null if the request was rejected.
+     */
+    private PrintJob accept(String requestedPrinterId){
+        PrintResponseMessage prm;
+        if(jobId == null){
+            jobId = PrintJob.NextId();
+        }
+        // Drop the request if it waited for a worker beyond its time to live
+        long deadline = ttl == null ? 0 : receivedAt + TimeUnit.MILLISECONDS.toNanos(ttl);
+        if(ttl != null && System.nanoTime() - deadline >= 0){
+            LOG.warn("Job {} expired before it was processed.", jobId);
+            Metrics.RequestDropped(requestedPrinterId);
+            prm = new PrintResponseMessage(null, PrintResponseMessage.REQUEST_STATUS_EXPIRED, "The job expired before it was processed.");
+            send(prm);
+            return null;
+        }
+        // Check the printer config
+        String printerId;
+        if(requestedPrinterId != null){
+            printerId = requestedPrinterId;
+        }
+        else{
+            printerId = Configuration.GetDefaultPrinterId();
+        }
+        PrinterConfiguration printerConfig = printerId == null ? null : Configuration.GetPrinter(printerId);
+        if(printerConfig == null){
+            LOG.warn("Printer {} was not found in the configuration of this service.", printerId);
+            Metrics.RequestRejected(printerId);
+            prm = new PrintResponseMessage(PrintResponseMessage.PRINTER_STATUS_ERROR, PrintResponseMessage.REQUEST_STATUS_REJECTED, "The printer was not found in the configuration of this service.");
+            send(prm);
+            return null;
+        }
+        // Printer config found. Check the printer's status
+        PrinterStatusMonitor.PrinterStatus status = PrinterStatusMonitor.Get(printerId, printerConfig);
+        if(!status.isAvailable()){
+            LOG.warn("{}: {}", printerId, status.getMessage());
+            Metrics.RequestRejected(printerId);
+            prm = new PrintResponseMessage(PrintResponseMessage.PRINTER_STATUS_ERROR, PrintResponseMessage.REQUEST_STATUS_REJECTED, status.getMessage());
+            send(prm);
+            return null;
+        }
+        // Printer is available. Queue the job so it can be rendered ahead of printing.
+        PrintJob job = new PrintJob(jobId, conn, printerId, printerConfig, status.getBackend());
+        if(ttl != null){
+            job.setDeadline(deadline);
+        }
+        if(!job.register()){
+            LOG.warn("Job {} is already in progress.", jobId);
+            prm = new PrintResponseMessage(PrintResponseMessage.PRINTER_STATUS_ERROR, PrintResponseMessage.REQUEST_STATUS_REJECTED, "A job with the same id is already in progress.");
+            send(prm);
+            return null;
+        }
+        int position = PrinterQueue.Get(printerId).enqueue(job);
+        if(position < 0){
+            job.unregister();
+            LOG.warn("The queue of {} is full.", printerId);
+            Metrics.RequestRejected(printerId);
+            prm = new PrintResponseMessage(PrintResponseMessage.PRINTER_STATUS_BUSY, PrintResponseMessage.REQUEST_STATUS_REJECTED, "The printer queue is full. Try again later.");
+            send(prm);
+            return null;
+        }
+        Metrics.JobAccepted(printerId);
+        JobJournal.Accepted(jobId, printerId, message);
+        rejection = null;
+        boolean busy = position > 0 || status.getPrinterStatus().equals(PrintResponseMessage.PRINTER_STATUS_BUSY);
+        if(Logging.IsDebugSampled(LOG)){
+            LOG.debug("Request for {} queued at position {}.", printerId, position);
+        }
+        prm = new PrintResponseMessage(busy ? PrintResponseMessage.PRINTER_STATUS_BUSY : PrintResponseMessage.PRINTER_STATUS_FREE, PrintResponseMessage.REQUEST_STATUS_RECEIVED, busy ? "Request received and queued." : "Request received and printer available.");
+        prm.setQueuePosition(position);
+        job.send(prm);
+        return job;
+    }
+    
+    /**
+     * Sends a response to the client, with the job id of the request. Replayed jobs have no client.
+     * @param prm the response message.
+     */
+    private void send(PrintResponseMessage prm){
+        if(prm.getRequestStatus().equals(PrintResponseMessage.REQUEST_STATUS_REJECTED) || prm.getRequestStatus().equals(PrintResponseMessage.REQUEST_STATUS_EXPIRED)){
+            rejection = prm;
+        }
+        if(prm.getJobId() == null){
+            prm.setJobId(jobId);
+        }
+        if(conn != null){
             conn.send(prm.toJson());
         }
     }
     
+    /**
+     * Describes the origin of the request for the log.
+     * @return the client address, or the journal for the replayed jobs.
+     */
+    private Object source(){
+        return conn == null ? "the job journal" : conn.getRemoteSocketAddress();
+    }
+    
+    /**
+     * Generates the PDF content of the HTML document with the printer's render profile.
+     * @param html the HTML document.
+     * @param charset the charset name of the HTML document.
+     * @param printerConfig the printer configuration.
+     * @return the PDF document.
+     */
+    private static PdfBuffer render(String html, String charset, PrinterConfiguration printerConfig){
+        return printerConfig.getRenderProfile().render(html, charset);
+    }
     
+    /**
+     * Merges several PDF documents into a single one, skipping the missing ones.
+     * @param parts the PDF documents. Null items are skipped.
+     * @return the merged PDF document.
+     */
+    private static PdfBuffer merge(PdfBuffer[] parts){
+        int size = 0;
+        int rendered = 0;
+        for(PdfBuffer part : parts){
+            if(part != null){
+                size += part.size();
+                rendered++;
+            }
+        }
+        // Checked before opening the merged document, which can not be closed without pages
+        if(rendered == 0){
+            throw new IllegalStateException("None of the batch documents could be rendered.");
+        }
+        PdfBuffer content = new PdfBuffer(size);
+        PdfDocument mergedDoc = new PdfDocument(new PdfWriter(content));
+        try{
+            PdfMerger merger = new PdfMerger(mergedDoc);
+            for(PdfBuffer part : parts){
+                if(part == null){
+                    continue;
+                }
+                try(PdfDocument partDoc = new PdfDocument(new PdfReader(part.toInputStream()))){
+                    merger.merge(partDoc, 1, partDoc.getNumberOfPages());
+                }
+                catch(IOException ex){
+                    throw new UncheckedIOException(ex);
+                }
+            }
+        }
+        catch(RuntimeException ex){
+            try{
+                mergedDoc.close();
+            }
+            catch(RuntimeException closeEx){
+                ex.addSuppressed(closeEx);
+            }
+            throw ex;
+        }
+        mergedDoc.close();
+        return content;
+    }
     
 }
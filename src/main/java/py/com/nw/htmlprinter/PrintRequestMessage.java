@@ -25,6 +25,7 @@ package py.com.nw.htmlprinter;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonSyntaxException;
 import java.nio.charset.Charset;
 
@@ -34,8 +35,22 @@ import java.nio.charset.Charset;
  */
 public class PrintRequestMessage {
     
+    public static final String TYPE_PRINT = "print";
+    public static final String TYPE_BATCH = "batch";
+    public static final String TYPE_TEMPLATE = "template";
+    public static final String TYPE_REGISTER_TEMPLATE = "registerTemplate";
+    public static final String TYPE_SUBSCRIBE = "subscribe";
+    public static final String TYPE_UNSUBSCRIBE = "unsubscribe";
+    public static final String TYPE_STATS = "stats";
+    public static final String TYPE_JOB_STATUS = "jobStatus";
+    public static final String TYPE_CANCEL = "cancel";
+    
+    private String type = TYPE_PRINT;
     private String printerId = null;
+    private String jobId = null;
+    private Long ttl = null;
     private String charset = "UTF-8";
+    private String baseUri = null;
     private String html;
 
     public PrintRequestMessage(){}
@@ -44,6 +59,10 @@ public class PrintRequestMessage {
         this.html = html;
     }
     
+    public String getType() {
+        return type;
+    }
+    
     public String getPrinterId() {
         return printerId;
     }
@@ -52,6 +71,32 @@ public class PrintRequestMessage {
         this.printerId = printerId;
     }
 
+    /**
+     * Retrieves the job id chosen by the client, echoed in every response to the request.
+     * For a job status request, it is the id of the job to look for.
+     * @return the job id, or null to let the service assign one.
+     */
+    public String getJobId() {
+        return jobId;
+    }
+
+    public void setJobId(String jobId) {
+        this.jobId = jobId;
+    }
+
+    /**
+     * Retrieves the time to live of the job, in milliseconds from its arrival to the service.
+     * The job is dropped if it can not be sent to the printer within that time.
+     * @return the time to live, or null if the job does not expire.
+     */
+    public Long getTtl() {
+        return ttl;
+    }
+
+    public void setTtl(Long ttl) {
+        this.ttl = ttl;
+    }
+
     public Charset getCharset() {
         return CharsetHelper.parse(charset);
     }
@@ -64,6 +109,18 @@ public class PrintRequestMessage {
         this.charset = charsetName;
     }
 
+    /**
+     * Retrieves the base URI used to resolve the relative images and stylesheets of the document.
+     * @return the base URI, or null to use the one of the printer configuration.
+     */
+    public String getBaseUri() {
+        return baseUri;
+    }
+
+    public void setBaseUri(String baseUri) {
+        this.baseUri = baseUri;
+    }
+
     public String getHtml() {
         return html;
     }
@@ -84,4 +141,10 @@ public class PrintRequestMessage {
         return gson.fromJson(message, PrintRequestMessage.class);
     }
     
+    public static PrintRequestMessage fromJson(JsonElement message) throws JsonSyntaxException{
+        GsonBuilder builder = new GsonBuilder();
+        Gson gson = builder.create();
+        return gson.fromJson(message, PrintRequestMessage.class);
+    }
+    
 }
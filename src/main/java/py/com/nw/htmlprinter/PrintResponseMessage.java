@@ -25,6 +25,7 @@ package py.com.nw.htmlprinter;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import java.util.List;
 
 /**
  *
@@ -41,10 +42,18 @@ public class PrintResponseMessage {
     public static final String REQUEST_STATUS_PROCESSING = "Processing";
     public static final String REQUEST_STATUS_DONE = "Done";
     public static final String REQUEST_STATUS_REJECTED = "Rejected";
+    public static final String REQUEST_STATUS_UNKNOWN = "Unknown";
+    public static final String REQUEST_STATUS_EXPIRED = "Expired";
+    public static final String REQUEST_STATUS_CANCELLED = "Cancelled";
     
+    private String printerId = null;
+    private String jobId = null;
     private String printerStatus;
     private String requestStatus;
     private String message;
+    private Integer queuePosition = null;
+    private List<DocumentStatus> documents = null;
+    private Metrics.Snapshot stats = null;
 
     public PrintResponseMessage(String printerStatus, String requestStatus, String message) {
         this.printerStatus = printerStatus;
@@ -52,6 +61,30 @@ public class PrintResponseMessage {
         this.message = message;
     }
 
+    /**
+     * Retrieves the printer id of a printer status update.
+     * @return the printer id, or null if the message is not a status update.
+     */
+    public String getPrinterId() {
+        return printerId;
+    }
+
+    public void setPrinterId(String printerId) {
+        this.printerId = printerId;
+    }
+
+    /**
+     * Retrieves the id of the job the response refers to.
+     * @return the job id, or null if the request did not create a job.
+     */
+    public String getJobId() {
+        return jobId;
+    }
+
+    public void setJobId(String jobId) {
+        this.jobId = jobId;
+    }
+
     public String getPrinterStatus() {
         return printerStatus;
     }
@@ -68,6 +101,16 @@ public class PrintResponseMessage {
         this.requestStatus = requestStatus;
     }
 
+    /**
+     * Tells whether the request status is a final one, after which no other status is sent for the job.
+     * @return true if the request is done, rejected, expired, cancelled or its outcome is unknown.
+     */
+    public boolean isFinal() {
+        return REQUEST_STATUS_DONE.equals(requestStatus) || REQUEST_STATUS_REJECTED.equals(requestStatus)
+                || REQUEST_STATUS_EXPIRED.equals(requestStatus) || REQUEST_STATUS_CANCELLED.equals(requestStatus)
+                || REQUEST_STATUS_UNKNOWN.equals(requestStatus);
+    }
+
     public String getMessage() {
         return message;
     }
@@ -76,16 +119,89 @@ public class PrintResponseMessage {
         this.message = message;
     }
     
+    /**
+     * Retrieves the number of jobs ahead of the request in the printer queue.
+     * @return the queue position, or null if the request was not queued.
+     */
+    public Integer getQueuePosition() {
+        return queuePosition;
+    }
+
+    public void setQueuePosition(Integer queuePosition) {
+        this.queuePosition = queuePosition;
+    }
+    
+    /**
+     * Retrieves the status of each document of a batch request.
+     * @return the document status list, or null if the request was not a batch.
+     */
+    public List<DocumentStatus> getDocuments() {
+        return documents;
+    }
+
+    public void setDocuments(List<DocumentStatus> documents) {
+        this.documents = documents;
+    }
+    
+    /**
+     * Retrieves the service metrics sent in answer to a stats request.
+     * @return the metrics, or null for the other messages.
+     */
+    public Metrics.Snapshot getStats() {
+        return stats;
+    }
+
+    public void setStats(Metrics.Snapshot stats) {
+        this.stats = stats;
+    }
+    
     public String toJson(){
         GsonBuilder builder = new GsonBuilder();
         Gson gson = builder.create();
         return gson.toJson(this);
     }
     
-    public static PrintRequestMessage fromJson(String message){
+    public static PrintResponseMessage fromJson(String message){
         GsonBuilder builder = new GsonBuilder();
         Gson gson = builder.create();
-        return gson.fromJson(message, PrintRequestMessage.class);
+        return gson.fromJson(message, PrintResponseMessage.class);
+    }
+    
+    /**
+     * The status of one document of a batch request.
+     */
+    public static class DocumentStatus {
+        
+        private int index;
+        private String requestStatus;
+        private String message;
+
+        public DocumentStatus(int index, String requestStatus, String message) {
+            this.index = index;
+            this.requestStatus = requestStatus;
+            this.message = message;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public String getRequestStatus() {
+            return requestStatus;
+        }
+
+        public void setRequestStatus(String requestStatus) {
+            this.requestStatus = requestStatus;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public void setMessage(String message) {
+            this.message = message;
+        }
+        
     }
     
 }
@@ -23,68 +23,170 @@
  */
 package py.com.nw.htmlprinter;
 
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
 import java.net.InetSocketAddress;
+import java.net.URISyntaxException;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Collections;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.java_websocket.WebSocket;
 import org.java_websocket.drafts.Draft;
 import org.java_websocket.drafts.Draft_6455;
 import org.java_websocket.handshake.ClientHandshake;
 import org.java_websocket.server.WebSocketServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  *
  * @author abiliomp
  */
 public class PrintServer extends WebSocketServer {
+    
+    private static final Logger LOG = LoggerFactory.getLogger(PrintServer.class);
+    
+    /**
+     * The bounded pool of worker threads that process the print requests.
+     */
+    private final ExecutorService workers;
+    
+    /**
+     * Whether the service is taking requests. Set once the server is started, after the warm-up and
+     * the job journal replay. The connections accepted before are answered that it is not ready.
+     */
+    private static volatile boolean Ready = false;
+    
     public PrintServer(int port) throws UnknownHostException {
         super(new InetSocketAddress(port));
-        System.out.println("[PrintServer] Started websocket server on port: " + port);
+        workers = createWorkers();
+        LOG.info("Started websocket server on port: {}", port);
     }
 
     public PrintServer(InetSocketAddress address) {
         super(address);
-        System.out.println("[PrintServer] Started websocket server on address: " + address.toString());
+        workers = createWorkers();
+        LOG.info("Started websocket server on address: {}", address);
     }
 
     public PrintServer(int port, Draft_6455 draft) {
         super(new InetSocketAddress(port), Collections.<Draft>singletonList(draft));
-        System.out.println("[PrintServer] Started websocket server with specific draft on port: " + port);
+        workers = createWorkers();
+        LOG.info("Started websocket server with specific draft on port: {}", port);
+    }
+    
+    /**
+     * Creates the worker pool sized by the service configuration.
+     * Requests that do not fit in the pool queue are rejected instead of spawning new threads.
+     * @return the worker pool.
+     */
+    private static ExecutorService createWorkers(){
+        int threads = Configuration.GetWorkerThreads();
+        int queueSize = Configuration.GetWorkerQueueSize();
+        LOG.info("Worker pool: {} threads, {} queued requests.", threads, queueSize);
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory threadFactory = r -> {
+            Thread t = new Thread(r);
+            t.setName("PrintService-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+        Metrics.RegisterGauge("busyWorkers", pool::getActiveCount);
+        Metrics.RegisterGauge("queuedRequests", () -> pool.getQueue().size());
+        Metrics.RegisterGauge("queuedJobs", PrinterQueue::GetTotalSize);
+        return pool;
+    }
+    
+    /**
+     * Hands the request over to the worker pool, answering busy if the pool queue is full or the
+     * service is not ready yet.
+     * @param conn the websocket connection that sent the request.
+     * @param message the request message.
+     */
+    private void dispatch(WebSocket conn, String message){
+        if(!Ready){
+            // The journal is not replayed nor open yet, the request would not be journaled
+            LOG.warn("Request from {} rejected. The service is not ready.", conn.getRemoteSocketAddress());
+            PrintResponseMessage prm = new PrintResponseMessage(PrintResponseMessage.PRINTER_STATUS_BUSY, PrintResponseMessage.REQUEST_STATUS_REJECTED, "The service is not ready to take requests. Try again later.");
+            prm.setJobId(RequestJobId(message));
+            conn.send(prm.toJson());
+            return;
+        }
+        try{
+            workers.execute(new PrintRequestHandler(conn, message));
+        }
+        catch(RejectedExecutionException ex){
+            LOG.warn("Request from {} rejected. All workers are busy.", conn.getRemoteSocketAddress());
+            PrintResponseMessage prm = new PrintResponseMessage(PrintResponseMessage.PRINTER_STATUS_BUSY, PrintResponseMessage.REQUEST_STATUS_REJECTED, "The service is busy. Try again later.");
+            prm.setJobId(RequestJobId(message));
+            conn.send(prm.toJson());
+        }
+    }
+    
+    /**
+     * Reads the job id of a request that is not going to be processed, so the rejection can be
+     * matched to the request by the client. It runs on the websocket thread, so the message is
+     * scanned with a streaming reader that skips the other values and stops at the job id.
+     * @param message the request message.
+     * @return the job id, or null if the request has none or is not valid.
+     */
+    private static String RequestJobId(String message){
+        try(JsonReader reader = new JsonReader(new StringReader(message))){
+            if(reader.peek() != JsonToken.BEGIN_OBJECT){
+                return null;
+            }
+            reader.beginObject();
+            while(reader.hasNext()){
+                if("jobId".equals(reader.nextName())){
+                    JsonToken token = reader.peek();
+                    return token == JsonToken.STRING || token == JsonToken.NUMBER ? reader.nextString() : null;
+                }
+                reader.skipValue();
+            }
+        }
+        catch(IOException | IllegalStateException ex){
+            // Not a valid request, there is nothing to match
+        }
+        return null;
     }
     
     @Override
     public void onOpen(WebSocket conn, ClientHandshake handshake) {
-        System.out.println("[PrintServer] Connection received from: " + conn.getRemoteSocketAddress().getAddress().getHostAddress());
+        LOG.info("Connection received from: {}", conn.getRemoteSocketAddress().getAddress().getHostAddress());
     }
 
     @Override
     public void onClose(WebSocket conn, int code, String reason, boolean remote) {
-        System.out.println("[PrintServer] Connection from " + conn.getRemoteSocketAddress().getAddress().getHostAddress() + " has been closed.");
+        LOG.info("Connection from {} has been closed.", conn.getRemoteSocketAddress().getAddress().getHostAddress());
+        PrinterStatusMonitor.Unsubscribe(conn);
     }
 
     @Override
     public void onMessage(WebSocket conn, String message) {
-        PrintRequestHandler prh = new PrintRequestHandler(conn, message);
-        Thread t = new Thread(prh);
-        t.setName("PrintService-" + conn.getResourceDescriptor());
-        t.start();
+        dispatch(conn, message);
     }
 
     @Override
     public void onMessage(WebSocket conn, ByteBuffer message) {
-        PrintRequestHandler prh = new PrintRequestHandler(conn, StandardCharsets.UTF_8.decode(message).toString());
-        Thread t = new Thread(prh);
-        t.setName("PrintService-" + conn.getResourceDescriptor());
-        t.start();
+        dispatch(conn, StandardCharsets.UTF_8.decode(message).toString());
     }
 
     @Override
     public void onError(WebSocket conn, Exception ex) {
-        System.err.println("[PrinterServer ERR] Error ocurred: " + ex.getLocalizedMessage());
-        System.err.println("[PrinterServer ERR] Stack trace: ");
-        ex.printStackTrace();
+        LOG.error("Error ocurred: " + ex.getLocalizedMessage(), ex);
         if (conn != null) {
             PrintResponseMessage prm = new PrintResponseMessage(PrintResponseMessage.PRINTER_STATUS_ERROR, PrintResponseMessage.REQUEST_STATUS_REJECTED, "Error in the conection: " + ex.getLocalizedMessage());
             conn.send(prm.toJson()); 
@@ -93,9 +195,67 @@ public class PrintServer extends WebSocketServer {
 
     @Override
     public void onStart() {
-        System.out.println("[PrinterServer] Server started!");
+        LOG.info("Server started!");
         setConnectionLostTimeout(0);
         setConnectionLostTimeout(100);
+        PrintServiceHelper.startRefresh(Configuration.GetPrinterRefreshInterval());
+        PrinterStatusMonitor.Start(Configuration.GetStatusPollInterval());
+        try {
+            ConfigWatcher.Start(Configuration.GetConfigFile());
+        } catch (URISyntaxException | UnsupportedEncodingException ex) {
+            LOG.error("The config file can not be watched: {}", ex.getLocalizedMessage());
+        }
+        Metrics.RegisterMBean();
+        openJournal();
+        Ready = true;
+        LOG.info("Ready to take requests.");
+    }
+    
+    /**
+     * Opens the job journal, if enabled in the configuration, and queues again the jobs that
+     * were not printed before the last stop of the service.
+     */
+    private void openJournal(){
+        String journalFile = Configuration.GetJournalFile();
+        if(journalFile == null || journalFile.isEmpty()){
+            return;
+        }
+        try {
+            JobJournal.Open(new File(journalFile), Configuration.GetJournalMaxSize(), Configuration.GetJournalSyncInterval());
+        } catch (IOException ex) {
+            LOG.error("The job journal can not be opened: {}", ex.getLocalizedMessage());
+            return;
+        }
+        for(JobJournal.Entry entry : JobJournal.GetPending()){
+            LOG.info("Replaying job {} for {}.", entry.getJobId(), entry.getPrinterId());
+            try{
+                workers.execute(new PrintRequestHandler(entry.getRequest(), entry.getJobId(), entry.getAcceptedAt()));
+            }
+            catch(RejectedExecutionException ex){
+                // Replayed on the next start
+                LOG.warn("Job {} could not be replayed. All workers are busy.", entry.getJobId());
+            }
+        }
+    }
+    
+    /**
+     * Checks if the service is started and warmed up.
+     * @return true if the service is taking requests.
+     */
+    public static boolean IsReady() {
+        return Ready;
+    }
+    
+    @Override
+    public void stop(int timeout) throws InterruptedException {
+        Ready = false;
+        super.stop(timeout);
+        PrintServiceHelper.stopRefresh();
+        PrinterStatusMonitor.Stop();
+        ConfigWatcher.Stop();
+        workers.shutdown();
+        workers.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+        JobJournal.Close();
     }
 
 }
\ No newline at end of file
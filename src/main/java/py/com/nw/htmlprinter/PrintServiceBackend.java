@@ -0,0 +1,89 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Networkers SRL.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package py.com.nw.htmlprinter;
+
+import java.awt.print.PrinterException;
+import java.io.IOException;
+import javax.print.PrintException;
+import javax.print.PrintService;
+import javax.print.attribute.standard.PrinterIsAcceptingJobs;
+import javax.print.attribute.standard.PrinterState;
+
+/**
+ * Prints through a javax.print service, either an operating system printer or a simulated one.
+ * @author abiliomp
+ */
+public class PrintServiceBackend implements PrinterBackend {
+    
+    private final PrintService printService;
+
+    public PrintServiceBackend(PrintService printService) {
+        this.printService = printService;
+    }
+
+    public PrintService getPrintService() {
+        return printService;
+    }
+
+    @Override
+    public String getName() {
+        return printService.getName();
+    }
+
+    @Override
+    public PrinterStatusMonitor.PrinterStatus poll(String printerId) {
+        PrinterState prnState = printService.getAttribute(PrinterState.class);
+        if(prnState == PrinterState.STOPPED){
+            return new PrinterStatusMonitor.PrinterStatus(printerId, this, PrintResponseMessage.PRINTER_STATUS_ERROR, "Printer is not available.");
+        }
+        if(printService.getAttribute(PrinterIsAcceptingJobs.class) == PrinterIsAcceptingJobs.NOT_ACCEPTING_JOBS){
+            return new PrinterStatusMonitor.PrinterStatus(printerId, this, PrintResponseMessage.PRINTER_STATUS_ERROR, "Printer is not accepting new jobs.");
+        }
+        if(prnState == PrinterState.PROCESSING){
+            return new PrinterStatusMonitor.PrinterStatus(printerId, this, PrintResponseMessage.PRINTER_STATUS_BUSY, "Printer is processing previous jobs.");
+        }
+        return new PrinterStatusMonitor.PrinterStatus(printerId, this, PrintResponseMessage.PRINTER_STATUS_FREE, "Printer available.");
+    }
+
+    @Override
+    public void submit(PdfBuffer content, PrinterConfiguration printerConfig, PrintJobTracker tracker) throws IOException, PrintException {
+        PrintSpooler.Submit(content, printerConfig, printService, tracker);
+    }
+
+    @Override
+    public void print(PdfBuffer content, PrinterConfiguration printerConfig) throws IOException, PrinterException, PrintException {
+        PrintSpooler.Print(content, printerConfig, printService);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof PrintServiceBackend && ((PrintServiceBackend) obj).printService.equals(printService);
+    }
+
+    @Override
+    public int hashCode() {
+        return printService.hashCode();
+    }
+    
+}
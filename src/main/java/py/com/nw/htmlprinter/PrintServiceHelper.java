@@ -23,24 +23,112 @@
  */
 package py.com.nw.htmlprinter;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import javax.print.PrintService;
 import javax.print.PrintServiceLookup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
- *
+ * Finds the print services of the configured printers.
+ * <p>
+ * Looking up the print services is an expensive call (an IPC round trip with CUPS), so the
+ * services are kept in an immutable map by name that is replaced on each refresh. Lookups read
+ * the current map without locking. The map is refreshed in the background on an interval, and
+ * also when a printer is not found, at most once every few seconds.
+ * <p>
+ * The simulated printers set in the configuration are listed along with the operating system ones.
  * @author abiliomp
  */
 public class PrintServiceHelper {
     
+    private static final Logger LOG = LoggerFactory.getLogger(PrintServiceHelper.class);
+    
+    /**
+     * Minimum time between refreshes caused by printers not found.
+     */
+    private static final long MISS_REFRESH_INTERVAL = 5000;
+    
+    private static volatile Map<String, PrintService> Services = Collections.emptyMap();
+    private static volatile long LastRefresh = 0;
+    private static ScheduledExecutorService Refresher = null;
+    
     private PrintServiceHelper(){}
 
+    /**
+     * Finds the print service of a printer.
+     * @param printerName the printer's name as reported by the operating system.
+     * @return the print service, or null if there is no printer with that name.
+     */
     public static PrintService find(String printerName) {
+        PrintService printService = Services.get(printerName);
+        if(printService == null && System.currentTimeMillis() - LastRefresh >= MISS_REFRESH_INTERVAL){
+            refresh(MISS_REFRESH_INTERVAL);
+            printService = Services.get(printerName);
+        }
+        return printService;
+    }
+    
+    /**
+     * Looks up the print services again and replaces the cached ones.
+     */
+    public static void refresh() {
+        refresh(0);
+    }
+    
+    private static synchronized void refresh(long minInterval) {
+        if(System.currentTimeMillis() - LastRefresh < minInterval){
+            // Another thread refreshed the services in the meantime
+            return;
+        }
         PrintService[] printServices = PrintServiceLookup.lookupPrintServices(null, null);
+        Map<String, PrintService> services = new HashMap<>();
         for (PrintService printService : printServices) {
-            if (printService.getName().trim().equals(printerName)) {
-                return printService;
+            services.put(printService.getName().trim(), printService);
+        }
+        for (PrintService printService : SimulatedPrintService.GetServices(Configuration.GetSimulatedPrinters(), Configuration.GetSimulatedPrintDelay())) {
+            services.put(printService.getName(), printService);
+        }
+        Services = Collections.unmodifiableMap(services);
+        LastRefresh = System.currentTimeMillis();
+    }
+    
+    /**
+     * Starts refreshing the print services in the background.
+     * @param intervalSeconds the time between refreshes in seconds. A value of 0 or less does nothing.
+     */
+    public static synchronized void startRefresh(int intervalSeconds) {
+        if(Refresher != null || intervalSeconds <= 0){
+            return;
+        }
+        Refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r);
+            t.setName("PrintServiceRefresh");
+            t.setDaemon(true);
+            return t;
+        });
+        Refresher.scheduleWithFixedDelay(() -> {
+            try{
+                refresh();
+            }
+            catch(RuntimeException ex){
+                LOG.error("The print services could not be refreshed: {}", ex.getLocalizedMessage());
             }
+        }, 0, intervalSeconds, TimeUnit.SECONDS);
+    }
+    
+    /**
+     * Stops the background refresh.
+     */
+    public static synchronized void stopRefresh() {
+        if(Refresher != null){
+            Refresher.shutdownNow();
+            Refresher = null;
         }
-        return null;
     }
 }
@@ -0,0 +1,168 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Networkers SRL.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package py.com.nw.htmlprinter;
+
+import java.awt.print.PrinterException;
+import java.awt.print.PrinterJob;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.print.DocFlavor;
+import javax.print.DocPrintJob;
+import javax.print.PrintException;
+import javax.print.PrintService;
+import javax.print.SimpleDoc;
+import javax.print.event.PrintJobListener;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.printing.PDFPageable;
+
+/**
+ * Sends rendered documents to a printer using the printer's configured {@link OutputMode}.
+ * Shared by the CLI and the service.
+ * @author abiliomp
+ */
+public class PrintSpooler {
+    
+    /**
+     * Whether each print service accepts PDF documents, by service name.
+     */
+    private static final ConcurrentHashMap<String, Boolean> PDF_SUPPORT = new ConcurrentHashMap<>();
+    
+    private PrintSpooler(){}
+    
+    /**
+     * Prints a rendered document, blocking until it is sent to the printer.
+     * @param content the PDF document.
+     * @param printerConfig the printer configuration.
+     * @param printService the printer's print service.
+     * @throws IOException if the PDF document can not be loaded or converted.
+     * @throws PrinterException if the Java2D printing fails.
+     * @throws PrintException if the print service rejects the document.
+     */
+    public static void Print(PdfBuffer content, PrinterConfiguration printerConfig, PrintService printService) throws IOException, PrinterException, PrintException{
+        switch(printerConfig.getOutputMode()){
+            case ESCPOS:
+                PrintRaw(EncodeEscPos(content, printerConfig), printService);
+                break;
+            case PDF:
+                if(IsPdfSupported(printService)){
+                    DocPrintJob job = printService.createPrintJob();
+                    job.print(new SimpleDoc(content.toInputStream(), DocFlavor.INPUT_STREAM.PDF, null), null);
+                }
+                else{
+                    // Fall back to Java2D printing
+                    PrintJava2D(content, printService);
+                }
+                break;
+            default:
+                PrintJava2D(content, printService);
+                break;
+        }
+    }
+    
+    private static void PrintJava2D(PdfBuffer content, PrintService printService) throws IOException, PrinterException{
+        try (PDDocument document = content.load()) {
+            PrinterJob job = PrinterJob.getPrinterJob();
+            job.setPageable(new PDFPageable(document));
+            job.setPrintService(printService);
+            job.print();
+        }
+    }
+    
+    /**
+     * Submits a rendered document to the printer without waiting for the printer to complete it.
+     * The outcome of the job is reported to the listener by the print service.
+     * @param content the PDF document.
+     * @param printerConfig the printer configuration.
+     * @param printService the printer's print service.
+     * @param listener the listener of the print job events.
+     * @throws IOException if the PDF document can not be loaded or converted.
+     * @throws PrintException if the print service rejects the document.
+     */
+    public static void Submit(PdfBuffer content, PrinterConfiguration printerConfig, PrintService printService, PrintJobListener listener) throws IOException, PrintException{
+        DocPrintJob job = printService.createPrintJob();
+        job.addPrintJobListener(listener);
+        long start = System.nanoTime();
+        switch(printerConfig.getOutputMode()){
+            case ESCPOS:
+                byte[] data = EncodeEscPos(content, printerConfig);
+                Metrics.Record(Metrics.STAGE_LOAD, System.nanoTime() - start);
+                job.print(new SimpleDoc(data, DocFlavor.BYTE_ARRAY.AUTOSENSE, null), null);
+                break;
+            case PDF:
+                if(IsPdfSupported(printService)){
+                    job.print(new SimpleDoc(content.toInputStream(), DocFlavor.INPUT_STREAM.PDF, null), null);
+                }
+                else{
+                    // Fall back to Java2D printing
+                    SubmitJava2D(content, job, start);
+                }
+                break;
+            default:
+                SubmitJava2D(content, job, start);
+                break;
+        }
+    }
+    
+    private static void SubmitJava2D(PdfBuffer content, DocPrintJob job, long start) throws IOException, PrintException{
+        // The pages are drawn by the print service while print() runs, so the document can be closed afterwards
+        try (PDDocument document = content.load()) {
+            Metrics.Record(Metrics.STAGE_LOAD, System.nanoTime() - start);
+            job.print(new SimpleDoc(new PDFPageable(document), DocFlavor.SERVICE_FORMATTED.PAGEABLE, null), null);
+        }
+    }
+    
+    /**
+     * Checks if the print service accepts PDF documents. The result is kept for each service.
+     * @param printService the print service.
+     * @return true if PDF documents can be sent directly.
+     */
+    public static boolean IsPdfSupported(PrintService printService){
+        return PDF_SUPPORT.computeIfAbsent(printService.getName(), name -> printService.isDocFlavorSupported(DocFlavor.INPUT_STREAM.PDF));
+    }
+    
+    /**
+     * Converts a rendered document into ESC/POS raster commands with the printer's resolution.
+     * @param content the PDF document.
+     * @param printerConfig the printer configuration.
+     * @return the ESC/POS commands.
+     * @throws IOException if the PDF document can not be loaded or rendered.
+     */
+    public static byte[] EncodeEscPos(PdfBuffer content, PrinterConfiguration printerConfig) throws IOException{
+        try (PDDocument document = content.load()) {
+            return EscPosEncoder.Encode(document, printerConfig.getPrinterDpi(), printerConfig.isCutPaper());
+        }
+    }
+    
+    /**
+     * Sends printer specific data to the print service without any conversion.
+     * @param data the raw printer data.
+     * @param printService the printer's print service.
+     * @throws PrintException if the print service rejects the data.
+     */
+    public static void PrintRaw(byte[] data, PrintService printService) throws PrintException{
+        DocPrintJob job = printService.createPrintJob();
+        job.print(new SimpleDoc(data, DocFlavor.BYTE_ARRAY.AUTOSENSE, null), null);
+    }
+    
+}
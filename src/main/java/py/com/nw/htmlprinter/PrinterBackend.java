@@ -0,0 +1,72 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Networkers SRL.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package py.com.nw.htmlprinter;
+
+import java.awt.print.PrinterException;
+import java.io.IOException;
+import javax.print.PrintException;
+
+/**
+ * A destination for the rendered documents of a printer. The service and the CLI only print
+ * through this interface, so printers can be replaced by the test backends in the configuration.
+ * @author abiliomp
+ * @see PrinterBackends
+ */
+public interface PrinterBackend {
+    
+    /**
+     * Retrieves a name that identifies the destination, like the print service name.
+     * @return the backend name.
+     */
+    String getName();
+    
+    /**
+     * Reads the current status of the destination.
+     * @param printerId the id of the printer using the backend.
+     * @return the printer status.
+     */
+    PrinterStatusMonitor.PrinterStatus poll(String printerId);
+    
+    /**
+     * Sends a rendered document without waiting for the printer to complete it.
+     * The outcome of the job is reported to the tracker.
+     * @param content the PDF document.
+     * @param printerConfig the printer configuration.
+     * @param tracker the tracker of the job.
+     * @throws IOException if the PDF document can not be loaded, converted or written.
+     * @throws PrintException if the destination rejects the document.
+     */
+    void submit(PdfBuffer content, PrinterConfiguration printerConfig, PrintJobTracker tracker) throws IOException, PrintException;
+    
+    /**
+     * Sends a rendered document, blocking until it is handed over.
+     * @param content the PDF document.
+     * @param printerConfig the printer configuration.
+     * @throws IOException if the PDF document can not be loaded, converted or written.
+     * @throws PrinterException if the Java2D printing fails.
+     * @throws PrintException if the destination rejects the document.
+     */
+    void print(PdfBuffer content, PrinterConfiguration printerConfig) throws IOException, PrinterException, PrintException;
+    
+}
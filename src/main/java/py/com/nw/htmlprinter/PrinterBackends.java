@@ -0,0 +1,61 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Networkers SRL.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package py.com.nw.htmlprinter;
+
+import java.io.File;
+import javax.print.PrintService;
+
+/**
+ * Finds the backend of the configured printers.
+ * @author abiliomp
+ */
+public class PrinterBackends {
+    
+    /**
+     * Name of the {@link PrinterBackendType#NULL} printers without a printer name.
+     */
+    private static final String NULL_PRINTER_NAME = "Null";
+    
+    private PrinterBackends(){}
+    
+    /**
+     * Finds the backend selected in a printer configuration.
+     * @param printerConfig the printer configuration.
+     * @return the backend, or null if the printer or the output directory is not set or not found.
+     */
+    public static PrinterBackend Find(PrinterConfiguration printerConfig){
+        switch(printerConfig.getBackend()){
+            case NULL:
+                // Printers with the same name share the simulated queue, as they would share the device
+                String name = printerConfig.getPrinterName() != null ? printerConfig.getPrinterName() : NULL_PRINTER_NAME;
+                return new PrintServiceBackend(SimulatedPrintService.Get(name, printerConfig.getPageDelay()));
+            case DIRECTORY:
+                return printerConfig.getOutputDirectory() == null ? null : new DirectoryBackend(new File(printerConfig.getOutputDirectory()));
+            default:
+                PrintService printService = PrintServiceHelper.find(printerConfig.getPrinterName());
+                return printService == null ? null : new PrintServiceBackend(printService);
+        }
+    }
+    
+}
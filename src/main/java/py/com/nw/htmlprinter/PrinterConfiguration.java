@@ -23,17 +23,13 @@
  */
 package py.com.nw.htmlprinter;
 
-import javax.xml.bind.annotation.XmlAccessType;
-import javax.xml.bind.annotation.XmlAccessorType;
-import javax.xml.bind.annotation.XmlRootElement;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  *
  * @author abiliomp
  */
-
-@XmlRootElement
-@XmlAccessorType(XmlAccessType.FIELD)
 public class PrinterConfiguration {
     
     /**
@@ -103,6 +99,72 @@ public class PrinterConfiguration {
      */
     private boolean isDefault = false;
     
+    /**
+     * The base URI used to resolve the relative resources of the HTML documents (images, stylesheets...).
+     * Default null, which uses the program's working directory.
+     * XML serialized parameter
+     */
+    private String baseUri = null;
+    
+    /**
+     * The charset of the HTML documents, used when a request does not specify one.
+     * Default UTF-8.
+     * XML serialized parameter
+     */
+    private String charset = "UTF-8";
+    
+    /**
+     * How the rendered documents are sent to the printer. Default JAVA2D.
+     * XML serialized parameter
+     * The values are defined in the enumeration {@link OutputMode}
+     */
+    private OutputMode outputMode = OutputMode.JAVA2D;
+    
+    /**
+     * The printer's native resolution in dots per inch, used by the raster output modes.
+     * Default 203, the usual resolution of thermal receipt printers.
+     * XML serialized parameter
+     */
+    private int printerDpi = 203;
+    
+    /**
+     * Whether to feed and cut the paper after each page in the ESC/POS output mode.
+     * Default true.
+     * XML serialized parameter
+     */
+    private boolean cutPaper = true;
+    
+    /**
+     * Where the documents are sent. Default SERVICE, the operating system printer.
+     * XML serialized parameter
+     * The values are defined in the enumeration {@link PrinterBackendType}
+     */
+    private PrinterBackendType backend = PrinterBackendType.SERVICE;
+    
+    /**
+     * The time in milliseconds the NULL backend takes to print each page.
+     * Default 0.
+     * XML serialized parameter
+     */
+    private long pageDelay = 0;
+    
+    /**
+     * The folder where the DIRECTORY backend writes the documents.
+     * XML serialized parameter
+     */
+    private String outputDirectory = null;
+    
+    /**
+     * The rendering setup built from this configuration. Not serialized.
+     */
+    private volatile RenderProfile renderProfile = null;
+    
+    /**
+     * Set when the configuration is published. The printers of the current configuration are
+     * shared by the jobs in progress, so they can not be changed.
+     */
+    private volatile boolean frozen = false;
+    
     // Constructor /////////////////////////////////////////////////////////////
 
     public PrinterConfiguration() {
@@ -150,6 +212,56 @@ public class PrinterConfiguration {
     public float getMarginBottom() {
         return marginBottom;
     }
+
+    public String getBaseUri() {
+        return baseUri;
+    }
+
+    public String getCharset() {
+        return charset;
+    }
+
+    public OutputMode getOutputMode() {
+        return outputMode;
+    }
+
+    public int getPrinterDpi() {
+        return printerDpi;
+    }
+
+    public boolean isCutPaper() {
+        return cutPaper;
+    }
+
+    public PrinterBackendType getBackend() {
+        return backend;
+    }
+
+    public long getPageDelay() {
+        return pageDelay;
+    }
+
+    public String getOutputDirectory() {
+        return outputDirectory;
+    }
+    
+    /**
+     * Retrieves the rendering setup of this printer, building it if it was not built yet.
+     * The service builds the profiles before it starts, so its jobs never wait here.
+     * @return the render profile.
+     */
+    public RenderProfile getRenderProfile() {
+        RenderProfile profile = renderProfile;
+        if(profile == null){
+            synchronized(this){
+                if(renderProfile == null){
+                    renderProfile = new RenderProfile(this);
+                }
+                profile = renderProfile;
+            }
+        }
+        return profile;
+    }
     
     // Setters /////////////////////////////////////////////////////////////////
     
@@ -158,14 +270,17 @@ public class PrinterConfiguration {
      * @param printerName a string value containing the printer's name or resource path
      */
     public void SetPrinterName(String printerName) {
+        checkNotFrozen();
         this.printerName = printerName;
     }
     
     public void setPaperWidth(double paperWidth) {
+        checkNotFrozen();
         this.paperWidth = paperWidth;
     }
 
     public void setPaperHeight(double paperHeight) {
+        checkNotFrozen();
         this.paperHeight = paperHeight;
     }
     
@@ -174,27 +289,179 @@ public class PrinterConfiguration {
      * @param pageOrientation enum value from {@link PageOrientation}
      */
     public void SetPageOrientation(PageOrientation pageOrientation) {
+        checkNotFrozen();
         this.pageOrientation = pageOrientation;
     }
     
     public void setDefault(boolean isDefault) {
+        checkNotFrozen();
         this.isDefault = isDefault;
     }
 
     public void setMarginLeft(float marginLeft) {
+        checkNotFrozen();
         this.marginLeft = marginLeft;
     }
 
     public void setMarginRight(float marginRight) {
+        checkNotFrozen();
         this.marginRight = marginRight;
     }
 
     public void setMarginTop(float marginTop) {
+        checkNotFrozen();
         this.marginTop = marginTop;
     }
 
     public void setMarginBottom(float marginBottom) {
+        checkNotFrozen();
         this.marginBottom = marginBottom;
     }
+
+    public void setBaseUri(String baseUri) {
+        checkNotFrozen();
+        this.baseUri = baseUri;
+    }
+
+    public void setCharset(String charset) {
+        checkNotFrozen();
+        this.charset = charset;
+    }
+    
+    /**
+     * Sets how the rendered documents are sent to the printer.
+     * @param outputMode enum value from {@link OutputMode}
+     */
+    public void setOutputMode(OutputMode outputMode) {
+        checkNotFrozen();
+        this.outputMode = outputMode;
+    }
+
+    public void setPrinterDpi(int printerDpi) {
+        checkNotFrozen();
+        this.printerDpi = printerDpi;
+    }
+
+    public void setCutPaper(boolean cutPaper) {
+        checkNotFrozen();
+        this.cutPaper = cutPaper;
+    }
+    
+    /**
+     * Sets where the documents are sent.
+     * @param backend enum value from {@link PrinterBackendType}
+     */
+    public void setBackend(PrinterBackendType backend) {
+        checkNotFrozen();
+        this.backend = backend;
+    }
+
+    public void setPageDelay(long pageDelay) {
+        checkNotFrozen();
+        this.pageDelay = pageDelay;
+    }
+
+    public void setOutputDirectory(String outputDirectory) {
+        checkNotFrozen();
+        this.outputDirectory = outputDirectory;
+    }
+    
+    /**
+     * Makes the configuration read only. Called when the configuration is published.
+     */
+    void freeze() {
+        frozen = true;
+    }
+    
+    private void checkNotFrozen() {
+        if(frozen){
+            throw new IllegalStateException("The configuration of a published printer can not be changed. Change a copy and add it with Configuration.AddPrinter.");
+        }
+    }
+    
+    /**
+     * Creates a modifiable copy of this printer configuration.
+     * @return the copy.
+     */
+    public PrinterConfiguration copy() {
+        PrinterConfiguration pc = new PrinterConfiguration();
+        for(Map.Entry<String, String> value : getValues().entrySet()){
+            pc.setValue(value.getKey(), value.getValue());
+        }
+        return pc;
+    }
+    
+    // XML serialization ///////////////////////////////////////////////////////
+    
+    /**
+     * Retrieves the serialized parameters by element name, in file order. Null values are left out.
+     * @return the parameter values.
+     */
+    Map<String, String> getValues() {
+        Map<String, String> values = new LinkedHashMap<>();
+        if(printerName != null){
+            values.put("printerName", printerName);
+        }
+        values.put("paperWidth", Double.toString(paperWidth));
+        values.put("paperHeight", Double.toString(paperHeight));
+        values.put("marginLeft", Float.toString(marginLeft));
+        values.put("marginRight", Float.toString(marginRight));
+        values.put("marginTop", Float.toString(marginTop));
+        values.put("marginBottom", Float.toString(marginBottom));
+        values.put("pageOrientation", pageOrientation.name());
+        values.put("isDefault", Boolean.toString(isDefault));
+        if(baseUri != null){
+            values.put("baseUri", baseUri);
+        }
+        if(charset != null){
+            values.put("charset", charset);
+        }
+        values.put("outputMode", outputMode.name());
+        values.put("printerDpi", Integer.toString(printerDpi));
+        values.put("cutPaper", Boolean.toString(cutPaper));
+        values.put("backend", backend.name());
+        values.put("pageDelay", Long.toString(pageDelay));
+        if(outputDirectory != null){
+            values.put("outputDirectory", outputDirectory);
+        }
+        return values;
+    }
+    
+    /**
+     * Sets a serialized parameter. Unknown parameters are ignored.
+     * @param name the element name.
+     * @param value the element text.
+     * @throws IllegalArgumentException if the value is not valid for the parameter.
+     */
+    void setValue(String name, String value) {
+        checkNotFrozen();
+        switch(name){
+            case "printerName": printerName = value.trim(); break;
+            case "paperWidth": paperWidth = ConfigurationFile.ParseDouble(name, value); break;
+            case "paperHeight": paperHeight = ConfigurationFile.ParseDouble(name, value); break;
+            case "marginLeft": marginLeft = (float) ConfigurationFile.ParseDouble(name, value); break;
+            case "marginRight": marginRight = (float) ConfigurationFile.ParseDouble(name, value); break;
+            case "marginTop": marginTop = (float) ConfigurationFile.ParseDouble(name, value); break;
+            case "marginBottom": marginBottom = (float) ConfigurationFile.ParseDouble(name, value); break;
+            case "pageOrientation": pageOrientation = ConfigurationFile.ParseEnum(PageOrientation.class, name, value); break;
+            case "isDefault": isDefault = ConfigurationFile.ParseBoolean(value); break;
+            case "baseUri": baseUri = value.trim(); break;
+            case "charset": charset = value.trim(); break;
+            case "outputMode": outputMode = ConfigurationFile.ParseEnum(OutputMode.class, name, value); break;
+            case "printerDpi": printerDpi = ConfigurationFile.ParseInt(name, value); break;
+            case "cutPaper": cutPaper = ConfigurationFile.ParseBoolean(value); break;
+            case "backend": backend = ConfigurationFile.ParseEnum(PrinterBackendType.class, name, value); break;
+            case "pageDelay": pageDelay = ConfigurationFile.ParseLong(name, value); break;
+            case "outputDirectory": outputDirectory = value.trim(); break;
+            default: break;
+        }
+    }
+    
+    /**
+     * Rebuilds the rendering setup of this printer. Must be called after changing the page setup.
+     */
+    public synchronized void buildRenderProfile() {
+        renderProfile = new RenderProfile(this);
+    }
     
 }
@@ -0,0 +1,186 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Networkers SRL.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package py.com.nw.htmlprinter;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An ordered dispatch queue for the jobs of one configured printer.
+ * <p>
+ * This is the hand-off between the render stage, run by the service worker threads, and the
+ * spool stage, run by a shared pool of spooling threads. Each printer spools its jobs one at a
+ * time and in the same order they were accepted, and the queue is only scheduled in the spool
+ * pool once its first job is rendered, so spooling threads never wait for a rendering. A job
+ * waiting for its printer to be free is checked again later instead of holding a spooling thread,
+ * so a busy printer does not delay the jobs of the other printers.
+ * @author abiliomp
+ */
+public class PrinterQueue {
+    
+    private static final Logger LOG = LoggerFactory.getLogger(PrinterQueue.class);
+    
+    /**
+     * The queues of every printer id used so far.
+     */
+    private static final ConcurrentHashMap<String, PrinterQueue> QUEUES = new ConcurrentHashMap<>();
+    
+    /**
+     * The spool stage thread pool, shared by all the printers.
+     */
+    private static ScheduledExecutorService Spoolers;
+    
+    private final String printerId;
+    private final ArrayDeque<PrintJob> jobs = new ArrayDeque<>();
+    
+    /**
+     * Number of jobs in the queue, including the one being spooled. Only changed while holding
+     * the queue lock, so it can be read without it.
+     */
+    private final AtomicInteger pending = new AtomicInteger();
+    
+    /**
+     * Whether a job of this queue is being spooled right now.
+     */
+    private boolean spooling = false;
+
+    private PrinterQueue(String printerId) {
+        this.printerId = printerId;
+    }
+    
+    /**
+     * Retrieves the queue of the specified printer, creating it on first use.
+     * @param printerId the printer id as specified in the configuration file.
+     * @return the printer queue.
+     */
+    public static PrinterQueue Get(String printerId){
+        return QUEUES.computeIfAbsent(printerId, PrinterQueue::new);
+    }
+    
+    /**
+     * Retrieves the number of jobs waiting or being spooled in all the printer queues.
+     * @return the total queue length.
+     */
+    public static int GetTotalSize(){
+        int total = 0;
+        for(PrinterQueue queue : QUEUES.values()){
+            total += queue.size();
+        }
+        return total;
+    }
+    
+    private static synchronized ScheduledExecutorService GetSpoolers(){
+        if(Spoolers == null){
+            AtomicInteger threadCount = new AtomicInteger();
+            Spoolers = Executors.newScheduledThreadPool(Configuration.GetSpoolThreads(), r -> {
+                Thread t = new Thread(r);
+                t.setName("PrinterQueue-" + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return Spoolers;
+    }
+
+    public String getPrinterId() {
+        return printerId;
+    }
+    
+    /**
+     * Retrieves the number of jobs waiting or being spooled.
+     * @return the queue length.
+     */
+    public int size(){
+        return pending.get();
+    }
+    
+    /**
+     * Adds a job at the end of the queue, as long as the queue is not full.
+     * @param job the job to be printed.
+     * @return the number of jobs ahead of the added one, or -1 if the queue is full.
+     */
+    public int enqueue(PrintJob job){
+        int limit = Configuration.GetSpoolQueueSize();
+        int position;
+        // The position and the queue order must agree, so both are set under the same lock
+        synchronized(this){
+            position = pending.get();
+            if(position >= limit){
+                return -1;
+            }
+            pending.incrementAndGet();
+            jobs.add(job);
+        }
+        job.whenRendered(this::schedule);
+        return position;
+    }
+    
+    /**
+     * Hands the first job of the queue over to the spool stage if it is already rendered
+     * and no other job of this printer is being spooled.
+     */
+    private synchronized void schedule(){
+        if(spooling){
+            return;
+        }
+        PrintJob job = jobs.peek();
+        if(job != null && job.isRendered()){
+            jobs.poll();
+            spooling = true;
+            GetSpoolers().execute(() -> spool(job));
+        }
+    }
+    
+    private void spool(PrintJob job){
+        long retry = 0;
+        try{
+            retry = job.spool();
+        }
+        catch(RuntimeException ex){
+            LOG.error(printerId + ": " + ex.getLocalizedMessage(), ex);
+            PrintResponseMessage prm = new PrintResponseMessage(PrintResponseMessage.PRINTER_STATUS_ERROR, PrintResponseMessage.REQUEST_STATUS_REJECTED, "An error ocurred while printing: " + ex.getLocalizedMessage());
+            job.send(prm);
+        }
+        finally{
+            if(retry > 0){
+                // The printer is busy. The queue stays blocked on this job without holding the thread.
+                GetSpoolers().schedule(() -> spool(job), retry, TimeUnit.MILLISECONDS);
+            }
+            else{
+                synchronized(this){
+                    pending.decrementAndGet();
+                    spooling = false;
+                }
+                schedule();
+            }
+        }
+    }
+    
+}
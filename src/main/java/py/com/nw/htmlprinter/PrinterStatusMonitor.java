@@ -0,0 +1,246 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Networkers SRL.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package py.com.nw.htmlprinter;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.java_websocket.WebSocket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the status of every configured printer up to date in the background.
+ * <p>
+ * The printers are polled on an interval and their last status is kept in memory, so the
+ * request path reads it without querying the print service. Websocket clients can subscribe
+ * to the status changes, which are pushed once per poll with the latest status of each
+ * printer that changed.
+ * @author abiliomp
+ */
+public class PrinterStatusMonitor {
+    
+    private static final Logger LOG = LoggerFactory.getLogger(PrinterStatusMonitor.class);
+    
+    private static final ConcurrentHashMap<String, PrinterStatus> STATUS = new ConcurrentHashMap<>();
+    
+    /**
+     * The subscribed connections and the printer ids they are interested in. An empty set means all the printers.
+     */
+    private static final ConcurrentHashMap<WebSocket, Set<String>> SUBSCRIBERS = new ConcurrentHashMap<>();
+    
+    private static ScheduledExecutorService Poller = null;
+    
+    private PrinterStatusMonitor(){}
+    
+    /**
+     * Starts polling the configured printers in the background.
+     * @param intervalMillis the time between polls in milliseconds.
+     */
+    public static synchronized void Start(long intervalMillis){
+        if(Poller != null){
+            return;
+        }
+        Poller = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r);
+            t.setName("PrinterStatusMonitor");
+            t.setDaemon(true);
+            return t;
+        });
+        Poller.scheduleWithFixedDelay(() -> {
+            try{
+                PollAll();
+            }
+            catch(RuntimeException ex){
+                LOG.error("The printers status could not be polled: {}", ex.getLocalizedMessage());
+            }
+        }, 0, Math.max(100, intervalMillis), TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Stops polling the printers.
+     */
+    public static synchronized void Stop(){
+        if(Poller != null){
+            Poller.shutdownNow();
+            Poller = null;
+        }
+    }
+    
+    /**
+     * Retrieves the last known status of a printer, polling it if it is not known yet or if it
+     * was polled with another configuration of the printer.
+     * @param printerId the printer id.
+     * @param printerConfig the printer configuration.
+     * @return the printer status.
+     */
+    public static PrinterStatus Get(String printerId, PrinterConfiguration printerConfig){
+        PrinterStatus status = STATUS.get(printerId);
+        // A reload publishes new printer configurations, which may point to another backend
+        if(status == null || status.printerConfig != printerConfig){
+            status = Poll(printerId, printerConfig);
+            STATUS.put(printerId, status);
+        }
+        return status;
+    }
+    
+    /**
+     * Subscribes a connection to the status changes and sends it the current status of the printers.
+     * @param conn the websocket connection.
+     * @param printerId the printer id to watch, or null for all the printers.
+     */
+    public static void Subscribe(WebSocket conn, String printerId){
+        Set<String> printerIds = SUBSCRIBERS.computeIfAbsent(conn, c -> Collections.synchronizedSet(new HashSet<>()));
+        if(printerId != null){
+            printerIds.add(printerId);
+        }
+        else{
+            printerIds.clear();
+        }
+        for(Map.Entry<String, PrinterConfiguration> entry : Configuration.GetPrinters().entrySet()){
+            if(printerId == null || printerId.equals(entry.getKey())){
+                Send(conn, Get(entry.getKey(), entry.getValue()));
+            }
+        }
+    }
+    
+    /**
+     * Removes all the subscriptions of a connection.
+     * @param conn the websocket connection.
+     */
+    public static void Unsubscribe(WebSocket conn){
+        SUBSCRIBERS.remove(conn);
+    }
+    
+    private static void PollAll(){
+        Map<String, PrinterConfiguration> printers = Configuration.GetPrinters();
+        // Forget the printers removed by a configuration reload
+        STATUS.keySet().retainAll(printers.keySet());
+        for(Map.Entry<String, PrinterConfiguration> entry : printers.entrySet()){
+            PrinterStatus status = Poll(entry.getKey(), entry.getValue());
+            PrinterStatus previous = STATUS.put(entry.getKey(), status);
+            if(previous != null && !previous.sameAs(status)){
+                Publish(status);
+            }
+        }
+    }
+    
+    private static void Publish(PrinterStatus status){
+        for(Map.Entry<WebSocket, Set<String>> subscriber : SUBSCRIBERS.entrySet()){
+            Set<String> printerIds = subscriber.getValue();
+            if(printerIds.isEmpty() || printerIds.contains(status.getPrinterId())){
+                Send(subscriber.getKey(), status);
+            }
+        }
+    }
+    
+    private static void Send(WebSocket conn, PrinterStatus status){
+        if(!conn.isOpen()){
+            SUBSCRIBERS.remove(conn);
+            return;
+        }
+        PrintResponseMessage prm = new PrintResponseMessage(status.getPrinterStatus(), null, status.getMessage());
+        prm.setPrinterId(status.getPrinterId());
+        conn.send(prm.toJson());
+    }
+    
+    private static PrinterStatus Poll(String printerId, PrinterConfiguration printerConfig){
+        PrinterBackend backend = PrinterBackends.Find(printerConfig);
+        PrinterStatus status;
+        if(backend == null){
+            status = new PrinterStatus(printerId, null, PrintResponseMessage.PRINTER_STATUS_OFF, "Printer not found. Check the configuration and server setup.");
+        }
+        else{
+            status = backend.poll(printerId);
+        }
+        status.printerConfig = printerConfig;
+        return status;
+    }
+    
+    /**
+     * The status of a printer at the time it was polled.
+     */
+    public static class PrinterStatus {
+        
+        private final String printerId;
+        private final PrinterBackend backend;
+        private final String printerStatus;
+        private final String message;
+        
+        /**
+         * The printer configuration the status was polled with.
+         */
+        private PrinterConfiguration printerConfig;
+
+        PrinterStatus(String printerId, PrinterBackend backend, String printerStatus, String message) {
+            this.printerId = printerId;
+            this.backend = backend;
+            this.printerStatus = printerStatus;
+            this.message = message;
+        }
+
+        public String getPrinterId() {
+            return printerId;
+        }
+        
+        /**
+         * Retrieves the printer's backend.
+         * @return the backend, or null if the printer was not found.
+         */
+        public PrinterBackend getBackend() {
+            return backend;
+        }
+        
+        /**
+         * Retrieves the printer status, as defined in {@link PrintResponseMessage}.
+         * @return the printer status.
+         */
+        public String getPrinterStatus() {
+            return printerStatus;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+        
+        /**
+         * Checks if the printer is ready to receive jobs, even if it is processing other jobs.
+         * @return true if the printer is free or busy.
+         */
+        public boolean isAvailable() {
+            return printerStatus.equals(PrintResponseMessage.PRINTER_STATUS_FREE) || printerStatus.equals(PrintResponseMessage.PRINTER_STATUS_BUSY);
+        }
+        
+        boolean sameAs(PrinterStatus other) {
+            return Objects.equals(backend, other.backend) && printerStatus.equals(other.printerStatus) && message.equals(other.message);
+        }
+    }
+    
+}
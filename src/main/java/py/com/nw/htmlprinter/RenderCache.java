@@ -0,0 +1,270 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Networkers SRL.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package py.com.nw.htmlprinter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An in memory LRU cache of rendered PDF documents, with an optional on disk second tier.
+ * <p>
+ * The documents are keyed by a hash of the HTML content, its charset and the printer's page
+ * setup, so the same document printed on printers with the same setup is rendered only once.
+ * The memory tier is bounded by the renderCacheSize configuration parameter (in bytes) and the
+ * disk tier is enabled by the renderCacheDir parameter and bounded by renderCacheDirSize.
+ * @author abiliomp
+ */
+public class RenderCache {
+    
+    private static final Logger LOG = LoggerFactory.getLogger(RenderCache.class);
+    
+    private static final LinkedHashMap<String, PdfBuffer> ENTRIES = new LinkedHashMap<>(16, 0.75f, true);
+    private static long CachedBytes = 0;
+    private static final AtomicLong HITS = new AtomicLong();
+    private static final AtomicLong DISK_HITS = new AtomicLong();
+    private static final AtomicLong MISSES = new AtomicLong();
+    
+    /**
+     * Guards the size of the disk tier, counted for the folder it was last computed for.
+     */
+    private static final Object DISK = new Object();
+    private static String DiskFolder = null;
+    private static long DiskBytes = 0;
+    
+    private RenderCache(){}
+    
+    /**
+     * Checks if any of the cache tiers is enabled.
+     * @return true if rendered documents should be cached.
+     */
+    public static boolean IsEnabled(){
+        return Configuration.GetRenderCacheSize() > 0 || Configuration.GetRenderCacheDir() != null;
+    }
+    
+    /**
+     * Computes the cache key of a document.
+     * @param html the HTML document.
+     * @param charsetName the charset name of the HTML document.
+     * @param profileKey the page setup key of the printer's render profile.
+     * @return the cache key.
+     */
+    public static String Key(String html, String charsetName, String profileKey){
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(profileKey.getBytes(StandardCharsets.UTF_8));
+            md.update((byte) 0);
+            md.update(String.valueOf(charsetName).getBytes(StandardCharsets.UTF_8));
+            md.update((byte) 0);
+            md.update(html.getBytes(StandardCharsets.UTF_8));
+            StringBuilder key = new StringBuilder();
+            for(byte b : md.digest()){
+                key.append(String.format("%02x", b));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+    
+    /**
+     * Retrieves a rendered document, looking in memory first and then on disk.
+     * @param key the cache key.
+     * @return the PDF document, or null if the document is not cached.
+     */
+    public static PdfBuffer Get(String key){
+        PdfBuffer content;
+        synchronized(ENTRIES){
+            content = ENTRIES.get(key);
+        }
+        if(content != null){
+            HITS.incrementAndGet();
+            return content;
+        }
+        File file = DiskFile(key);
+        if(file != null && file.exists()){
+            try {
+                content = new PdfBuffer(Files.readAllBytes(file.toPath()));
+                // The disk tier evicts by modification time, so a hit keeps the document
+                file.setLastModified(System.currentTimeMillis());
+                DISK_HITS.incrementAndGet();
+                PutInMemory(key, content);
+                return content;
+            } catch (IOException ex) {
+                LOG.error(ex.getLocalizedMessage());
+            }
+        }
+        MISSES.incrementAndGet();
+        return null;
+    }
+    
+    /**
+     * Stores a rendered document in the cache tiers.
+     * @param key the cache key.
+     * @param content the PDF document. Must not be modified afterwards.
+     */
+    public static void Put(String key, PdfBuffer content){
+        PutInMemory(key, content);
+        File file = DiskFile(key);
+        if(file != null && !file.exists()){
+            // Each writer gets its own temporary file, the same document may be rendered twice at once
+            Path tmpFile = null;
+            try {
+                tmpFile = Files.createTempFile(file.getParentFile().toPath(), key, ".tmp");
+                try(OutputStream out = Files.newOutputStream(tmpFile)){
+                    content.writeTo(out);
+                }
+            } catch (IOException ex) {
+                LOG.error(ex.getLocalizedMessage());
+                DeleteQuietly(tmpFile);
+                return;
+            }
+            try {
+                Files.move(tmpFile, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException ex) {
+                // Another writer got there first, or the folder can't take it. The next get is just a miss.
+                LOG.debug("The rendered document {} was not stored on disk: {}", key, ex.getLocalizedMessage());
+                DeleteQuietly(tmpFile);
+                return;
+            }
+            TrimDisk(file.getParentFile(), content.size());
+        }
+    }
+    
+    /**
+     * Counts a document stored in the disk tier and deletes the least recently used documents
+     * while the folder exceeds its budget.
+     * @param folder the disk tier folder.
+     * @param stored the size of the document just stored.
+     */
+    private static void TrimDisk(File folder, long stored){
+        long maxBytes = Configuration.GetRenderCacheDirSize();
+        synchronized(DISK){
+            boolean counted = folder.getPath().equals(DiskFolder);
+            if(counted){
+                DiskBytes += stored;
+                if(maxBytes <= 0 || DiskBytes <= maxBytes){
+                    return;
+                }
+            }
+            // Recount the folder, which also picks up the documents left by previous runs
+            File[] files = folder.listFiles((dir, name) -> name.endsWith(".pdf"));
+            if(files == null){
+                return;
+            }
+            DiskFolder = folder.getPath();
+            DiskBytes = 0;
+            for(File f : files){
+                DiskBytes += f.length();
+            }
+            if(maxBytes <= 0 || DiskBytes <= maxBytes){
+                return;
+            }
+            Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+            for(int i = 0; i < files.length && DiskBytes > maxBytes; i++){
+                long length = files[i].length();
+                if(files[i].delete()){
+                    DiskBytes -= length;
+                }
+            }
+        }
+    }
+    
+    private static void DeleteQuietly(Path file){
+        if(file != null){
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ex) {
+                LOG.warn(ex.getLocalizedMessage());
+            }
+        }
+    }
+    
+    private static void PutInMemory(String key, PdfBuffer content){
+        long maxBytes = Configuration.GetRenderCacheSize();
+        if(content.size() > maxBytes){
+            return;
+        }
+        // The render buffers are sized ahead, only the content must count against the budget
+        content.trimToSize();
+        synchronized(ENTRIES){
+            PdfBuffer old = ENTRIES.put(key, content);
+            if(old != null){
+                CachedBytes -= old.capacity();
+            }
+            CachedBytes += content.capacity();
+            // Evict the least recently used documents until the cache fits its budget
+            Iterator<Map.Entry<String, PdfBuffer>> it = ENTRIES.entrySet().iterator();
+            while(CachedBytes > maxBytes && it.hasNext()){
+                CachedBytes -= it.next().getValue().capacity();
+                it.remove();
+            }
+        }
+    }
+    
+    private static File DiskFile(String key){
+        String dir = Configuration.GetRenderCacheDir();
+        if(dir == null){
+            return null;
+        }
+        File folder = new File(dir);
+        if(!folder.exists() && !folder.mkdirs()){
+            return null;
+        }
+        return new File(folder, key + ".pdf");
+    }
+    
+    public static long GetHits(){
+        return HITS.get();
+    }
+    
+    public static long GetDiskHits(){
+        return DISK_HITS.get();
+    }
+    
+    public static long GetMisses(){
+        return MISSES.get();
+    }
+    
+    public static long GetCachedBytes(){
+        synchronized(ENTRIES){
+            return CachedBytes;
+        }
+    }
+    
+}
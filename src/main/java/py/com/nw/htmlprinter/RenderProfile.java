@@ -0,0 +1,213 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Networkers SRL.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package py.com.nw.htmlprinter;
+
+import com.itextpdf.html2pdf.ConverterProperties;
+import com.itextpdf.html2pdf.HtmlConverter;
+import com.itextpdf.html2pdf.resolver.font.DefaultFontProvider;
+import com.itextpdf.kernel.events.PdfDocumentEvent;
+import com.itextpdf.kernel.geom.PageSize;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfWriter;
+import com.itextpdf.layout.font.FontSet;
+import com.itextpdf.styledxmlparser.resolver.font.BasicFontProvider;
+
+/**
+ * The pre-built rendering setup of one printer configuration.
+ * <p>
+ * It holds everything needed to convert HTML into PDF for the printer that does not depend on
+ * the document itself, so it is built once when the configuration is read and then shared by
+ * every job sent to the printer.
+ * @author abiliomp
+ */
+public class RenderProfile {
+    
+    /**
+     * The fonts available to the HTML conversion, scanned once and shared by all the profiles.
+     * Font providers keep per-document state, so each conversion gets its own provider on top of this set.
+     */
+    private static FontSet SharedFontSet;
+    private static String DefaultFontFamily;
+    
+    private final PageSize pageSize;
+    private final PageOrientationsEventHandler orientationHandler;
+    private final String baseUri;
+    private final String charset;
+    
+    /**
+     * Identifies the page setup of the profile in the render cache keys.
+     */
+    private final String key;
+    
+    /**
+     * Size of the last document rendered with this profile, used to size the next output buffer.
+     */
+    private volatile int sizeHint = 16 * 1024;
+
+    /**
+     * Builds the rendering profile of a printer configuration.
+     * @param printerConfig the printer configuration.
+     */
+    public RenderProfile(PrinterConfiguration printerConfig) {
+        LoadFonts();
+        orientationHandler = new PageOrientationsEventHandler();
+        PageSize pz = new PageSize((float) Configuration.mmToDots(printerConfig.getPaperWidth()), (float) Configuration.mmToDots(printerConfig.getPaperHeight()));
+        switch(printerConfig.getPageOrientation()){
+            case LANDSCAPE:
+                orientationHandler.setOrientation(PageOrientationsEventHandler.LANDSCAPE);
+                pz = pz.rotate();
+                break;
+            case INVERTEDPORTRAIT:
+                orientationHandler.setOrientation(PageOrientationsEventHandler.INVERTEDPORTRAIT);
+                break;
+            case SEASCAPE:
+                orientationHandler.setOrientation(PageOrientationsEventHandler.SEASCAPE);
+                pz = pz.rotate();
+                break;
+            default:
+                orientationHandler.setOrientation(PageOrientationsEventHandler.PORTRAIT);
+                break;
+        }
+        pz.applyMargins(printerConfig.getMarginTop(), printerConfig.getMarginRight(), printerConfig.getMarginBottom(), printerConfig.getMarginLeft(), false);
+        pageSize = pz;
+        baseUri = printerConfig.getBaseUri();
+        charset = printerConfig.getCharset();
+        key = printerConfig.getPaperWidth() + "x" + printerConfig.getPaperHeight()
+                + ";" + printerConfig.getMarginTop() + "," + printerConfig.getMarginRight() + "," + printerConfig.getMarginBottom() + "," + printerConfig.getMarginLeft()
+                + ";" + printerConfig.getPageOrientation() + ";" + baseUri;
+    }
+    
+    private static synchronized void LoadFonts(){
+        if(SharedFontSet == null){
+            DefaultFontProvider fontProvider = new DefaultFontProvider();
+            SharedFontSet = fontProvider.getFontSet();
+            DefaultFontFamily = fontProvider.getDefaultFontFamily();
+        }
+    }
+
+    /**
+     * Retrieves the page size with the printer's orientation and margins applied.
+     * @return a copy of the page size, so it can be changed by the caller.
+     */
+    public PageSize getPageSize() {
+        return new PageSize(pageSize);
+    }
+    
+    /**
+     * Creates the HTML conversion properties for one document.
+     * @param charsetName the charset name of the HTML document, or null for the printer's default.
+     * @return the conversion properties.
+     */
+    public ConverterProperties createConverterProperties(String charsetName){
+        return createConverterProperties(charsetName, null);
+    }
+    
+    /**
+     * Creates the HTML conversion properties for one document.
+     * @param charsetName the charset name of the HTML document, or null for the printer's default.
+     * @param documentBaseUri the base URI of the document, or null for the printer's one.
+     * @return the conversion properties.
+     */
+    public ConverterProperties createConverterProperties(String charsetName, String documentBaseUri){
+        ConverterProperties convP = new ConverterProperties();
+        convP.setFontProvider(new BasicFontProvider(SharedFontSet, DefaultFontFamily));
+        convP.setCharset(charsetName != null ? charsetName : charset);
+        if(documentBaseUri != null){
+            convP.setBaseUri(documentBaseUri);
+        }
+        else if(baseUri != null){
+            convP.setBaseUri(baseUri);
+        }
+        return convP;
+    }
+    
+    /**
+     * Converts the HTML document into PDF with the printer's page setup.
+     * @param html the HTML document.
+     * @param charsetName the charset name of the HTML document, or null for the printer's default.
+     * @param pdfW the writer that receives the PDF content. It is closed at the end of the conversion.
+     */
+    public void render(String html, String charsetName, PdfWriter pdfW){
+        render(html, charsetName, null, pdfW);
+    }
+    
+    /**
+     * Converts the HTML document into PDF with the printer's page setup.
+     * @param html the HTML document.
+     * @param charsetName the charset name of the HTML document, or null for the printer's default.
+     * @param documentBaseUri the base URI of the document, or null for the printer's one.
+     * @param pdfW the writer that receives the PDF content. It is closed at the end of the conversion.
+     */
+    public void render(String html, String charsetName, String documentBaseUri, PdfWriter pdfW){
+        PdfDocument pdfDoc = new PdfDocument(pdfW);
+        pdfDoc.addEventHandler(PdfDocumentEvent.START_PAGE, orientationHandler);
+        pdfDoc.setDefaultPageSize(getPageSize());
+        HtmlConverter.convertToPdf(html, pdfDoc, createConverterProperties(charsetName, documentBaseUri));
+    }
+    
+    /**
+     * Converts the HTML document into an in memory PDF document with the printer's page setup.
+     * Documents found in the {@link RenderCache} are not rendered again.
+     * @param html the HTML document.
+     * @param charsetName the charset name of the HTML document, or null for the printer's default.
+     * @return the PDF document. Must not be modified, since it can be shared by the cache.
+     */
+    public PdfBuffer render(String html, String charsetName){
+        return render(html, charsetName, (String) null);
+    }
+    
+    /**
+     * Converts the HTML document into an in memory PDF document with the printer's page setup.
+     * Documents found in the {@link RenderCache} are not rendered again.
+     * @param html the HTML document.
+     * @param charsetName the charset name of the HTML document, or null for the printer's default.
+     * @param documentBaseUri the base URI of the document, or null for the printer's one.
+     * @return the PDF document. Must not be modified, since it can be shared by the cache.
+     */
+    public PdfBuffer render(String html, String charsetName, String documentBaseUri){
+        if(charsetName == null){
+            charsetName = charset;
+        }
+        String cacheKey = null;
+        if(RenderCache.IsEnabled()){
+            // The same document resolves its resources differently with another base URI
+            cacheKey = RenderCache.Key(html, charsetName, documentBaseUri == null ? key : key + ";" + documentBaseUri);
+            PdfBuffer cached = RenderCache.Get(cacheKey);
+            if(cached != null){
+                return cached;
+            }
+        }
+        PdfBuffer content = new PdfBuffer(sizeHint + sizeHint / 8);
+        long start = System.nanoTime();
+        render(html, charsetName, documentBaseUri, new PdfWriter(content));
+        Metrics.Record(Metrics.STAGE_RENDER, System.nanoTime() - start);
+        Metrics.Rendered(content.size());
+        sizeHint = content.size();
+        if(cacheKey != null){
+            RenderCache.Put(cacheKey, content);
+        }
+        return content;
+    }
+    
+}
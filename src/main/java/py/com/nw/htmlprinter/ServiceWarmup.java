@@ -0,0 +1,127 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Networkers SRL.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package py.com.nw.htmlprinter;
+
+import com.google.gson.JsonObject;
+import com.itextpdf.kernel.pdf.PdfWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the rendering code before the service starts taking requests, so the first jobs do not
+ * pay for the class loading, the JIT compilation and the font and PDF library setup.
+ * <p>
+ * Each configured printer renders a sample document, and every registered template, the
+ * configured number of times. The PDF output is discarded, and the page drawing that the
+ * printing uses is done once per printer. The render cache is not used, nor filled.
+ * @author abiliomp
+ */
+public class ServiceWarmup {
+    
+    private static final Logger LOG = LoggerFactory.getLogger(ServiceWarmup.class);
+    
+    /**
+     * A small receipt-like document with the usual elements of the printed documents.
+     */
+    static final String SAMPLE_HTML = "<html><head><style>"
+            + "body { font-family: sans-serif; font-size: 9pt; } table { width: 100%; border-collapse: collapse; }"
+            + "td, th { border-bottom: 1px solid #000; padding: 1mm; } .total { font-weight: bold; text-align: right; }"
+            + "</style></head><body>"
+            + "<h1>Warm-up</h1><p>Sample document with <b>bold</b>, <i>italic</i> and <u>underlined</u> text.</p>"
+            + "<table><tr><th>Item</th><th>Qty</th><th>Price</th></tr>"
+            + "<tr><td>Coffee</td><td>2</td><td>5.00</td></tr><tr><td>Sandwich</td><td>1</td><td>7.50</td></tr>"
+            + "<tr><td colspan=\"3\" class=\"total\">Total 12.50</td></tr></table>"
+            + "<div style=\"position: absolute; top: 10mm; left: 10mm;\">Positioned text</div>"
+            + "</body></html>";
+    
+    private ServiceWarmup(){}
+    
+    /**
+     * Renders the sample documents for every configured printer.
+     * Errors are reported and do not stop the warm-up, since the requests will report them again.
+     * @param iterations the number of times each document is rendered. Nothing is done if 0 or less.
+     * @return the warm-up duration in milliseconds.
+     */
+    public static long Run(int iterations){
+        long start = System.currentTimeMillis();
+        if(iterations <= 0){
+            return 0;
+        }
+        List<String> documents = new ArrayList<>();
+        documents.add(SAMPLE_HTML);
+        for(HtmlTemplate template : TemplateRegistry.GetAll()){
+            documents.add(template.render(new JsonObject()));
+        }
+        for(Map.Entry<String, PrinterConfiguration> entry : Configuration.GetPrinters().entrySet()){
+            PrinterConfiguration printerConfig = entry.getValue();
+            try{
+                RenderProfile profile = printerConfig.getRenderProfile();
+                for(int i = 0; i < iterations; i++){
+                    for(String html : documents){
+                        profile.render(html, null, new PdfWriter(new NullOutputStream()));
+                    }
+                }
+                // Exercise the PDF loading and page drawing used by the spool stage once
+                PdfBuffer content = new PdfBuffer(16 * 1024);
+                profile.render(SAMPLE_HTML, null, new PdfWriter(content));
+                if(printerConfig.getOutputMode() == OutputMode.ESCPOS){
+                    PrintSpooler.EncodeEscPos(content, printerConfig);
+                }
+                else{
+                    try (PDDocument document = content.load()) {
+                        new PDFRenderer(document).renderImage(0, 1, ImageType.RGB);
+                    }
+                }
+            }
+            catch(IOException | RuntimeException ex){
+                LOG.error("{}: {}", entry.getKey(), ex.getLocalizedMessage());
+            }
+        }
+        return System.currentTimeMillis() - start;
+    }
+    
+    /**
+     * Discards the rendered PDF content.
+     */
+    private static class NullOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+        
+    }
+    
+}
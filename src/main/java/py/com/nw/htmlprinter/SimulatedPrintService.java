@@ -0,0 +1,371 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Networkers SRL.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package py.com.nw.htmlprinter;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.print.PageFormat;
+import java.awt.print.Pageable;
+import java.awt.print.Printable;
+import java.awt.print.PrinterException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.print.Doc;
+import javax.print.DocFlavor;
+import javax.print.DocPrintJob;
+import javax.print.PrintException;
+import javax.print.PrintService;
+import javax.print.ServiceUIFactory;
+import javax.print.attribute.Attribute;
+import javax.print.attribute.AttributeSet;
+import javax.print.attribute.HashPrintJobAttributeSet;
+import javax.print.attribute.HashPrintServiceAttributeSet;
+import javax.print.attribute.PrintJobAttributeSet;
+import javax.print.attribute.PrintRequestAttributeSet;
+import javax.print.attribute.PrintServiceAttribute;
+import javax.print.attribute.PrintServiceAttributeSet;
+import javax.print.attribute.standard.PrinterIsAcceptingJobs;
+import javax.print.attribute.standard.PrinterName;
+import javax.print.attribute.standard.PrinterState;
+import javax.print.attribute.standard.QueuedJobCount;
+import javax.print.event.PrintJobAttributeListener;
+import javax.print.event.PrintJobEvent;
+import javax.print.event.PrintJobListener;
+import javax.print.event.PrintServiceAttributeListener;
+
+/**
+ * A print service that does not print, used to load test the service on computers without printers.
+ * <p>
+ * Jobs are consumed like a printer driver would: Java2D documents have all their pages drawn and
+ * data streams are read to the end. Then the job waits for its turn in the printer queue, takes the
+ * configured time per page and is reported as completed through the print job events. While there
+ * are jobs pending the printer state is processing.
+ * <p>
+ * These printers are offered as print services by {@link PrintServiceHelper} when the configuration
+ * asks for them, and they are also the {@link PrinterBackendType#NULL} printer backend.
+ * @author abiliomp
+ */
+public class SimulatedPrintService implements PrintService {
+    
+    /**
+     * Name prefix of the simulated printers, followed by the printer number starting at 1.
+     */
+    public static final String NAME_PREFIX = "Simulated-";
+    
+    private static final DocFlavor[] FLAVORS = {
+        DocFlavor.SERVICE_FORMATTED.PAGEABLE,
+        DocFlavor.SERVICE_FORMATTED.PRINTABLE,
+        DocFlavor.BYTE_ARRAY.AUTOSENSE,
+        DocFlavor.INPUT_STREAM.AUTOSENSE
+    };
+    
+    /**
+     * The resolution used to draw the pages of Java2D documents.
+     */
+    private static final double DRAW_DPI = 72;
+    
+    /**
+     * The simulated printers created so far, kept so their queues survive the print services refreshes.
+     */
+    private static final ConcurrentHashMap<String, SimulatedPrintService> SERVICES = new ConcurrentHashMap<>();
+    
+    private final String name;
+    private final ScheduledExecutorService printer;
+    private final AtomicInteger pendingJobs = new AtomicInteger();
+    private volatile long pageDelay;
+    private long busyUntil = 0;
+
+    private SimulatedPrintService(String name, long pageDelay) {
+        this.name = name;
+        this.pageDelay = pageDelay;
+        printer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r);
+            t.setName("SimulatedPrinter-" + name);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+    
+    /**
+     * Gets the simulated printers, creating the missing ones.
+     * @param count the number of simulated printers.
+     * @param pageDelay the time in milliseconds each printer takes to print a page.
+     * @return the simulated print services.
+     */
+    public static List<PrintService> GetServices(int count, long pageDelay){
+        List<PrintService> services = new ArrayList<>();
+        for(int i = 1; i <= count; i++){
+            services.add(Get(NAME_PREFIX + i, pageDelay));
+        }
+        return services;
+    }
+    
+    /**
+     * Gets a simulated printer by name, creating it if needed.
+     * @param name the printer name.
+     * @param pageDelay the time in milliseconds the printer takes to print a page.
+     * @return the simulated print service.
+     */
+    public static SimulatedPrintService Get(String name, long pageDelay){
+        SimulatedPrintService service = SERVICES.computeIfAbsent(name, n -> new SimulatedPrintService(n, pageDelay));
+        service.pageDelay = pageDelay;
+        return service;
+    }
+    
+    /**
+     * Queues a consumed job on the printer and reports its events.
+     */
+    private void queue(SimulatedPrintJob job, int pages){
+        job.fire(PrintJobEvent.DATA_TRANSFER_COMPLETE);
+        long delay;
+        synchronized(this){
+            long now = System.currentTimeMillis();
+            busyUntil = Math.max(busyUntil, now) + pages * pageDelay;
+            delay = busyUntil - now;
+        }
+        pendingJobs.incrementAndGet();
+        printer.schedule(() -> {
+            pendingJobs.decrementAndGet();
+            job.fire(PrintJobEvent.JOB_COMPLETE);
+            job.fire(PrintJobEvent.NO_MORE_EVENTS);
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+    
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public DocPrintJob createPrintJob() {
+        return new SimulatedPrintJob();
+    }
+
+    /**
+     * The attributes are not monitored, the status is read when needed.
+     */
+    @Override
+    public void addPrintServiceAttributeListener(PrintServiceAttributeListener listener) {
+    }
+
+    @Override
+    public void removePrintServiceAttributeListener(PrintServiceAttributeListener listener) {
+    }
+
+    @Override
+    public PrintServiceAttributeSet getAttributes() {
+        PrintServiceAttributeSet attributes = new HashPrintServiceAttributeSet();
+        attributes.add(new PrinterName(name, null));
+        attributes.add(PrinterIsAcceptingJobs.ACCEPTING_JOBS);
+        attributes.add(new QueuedJobCount(pendingJobs.get()));
+        return attributes;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends PrintServiceAttribute> T getAttribute(Class<T> category) {
+        if(category == PrinterState.class){
+            return (T) (pendingJobs.get() > 0 ? PrinterState.PROCESSING : PrinterState.IDLE);
+        }
+        return (T) getAttributes().get(category);
+    }
+
+    @Override
+    public DocFlavor[] getSupportedDocFlavors() {
+        return FLAVORS.clone();
+    }
+
+    @Override
+    public boolean isDocFlavorSupported(DocFlavor flavor) {
+        for(DocFlavor supported : FLAVORS){
+            if(supported.equals(flavor)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Class<?>[] getSupportedAttributeCategories() {
+        return new Class<?>[0];
+    }
+
+    @Override
+    public boolean isAttributeCategorySupported(Class<? extends Attribute> category) {
+        return false;
+    }
+
+    @Override
+    public Object getDefaultAttributeValue(Class<? extends Attribute> category) {
+        return null;
+    }
+
+    @Override
+    public Object getSupportedAttributeValues(Class<? extends Attribute> category, DocFlavor flavor, AttributeSet attributes) {
+        return null;
+    }
+
+    @Override
+    public boolean isAttributeValueSupported(Attribute attrval, DocFlavor flavor, AttributeSet attributes) {
+        return false;
+    }
+
+    /**
+     * The request attributes are ignored, so none of them is reported as unsupported.
+     */
+    @Override
+    public AttributeSet getUnsupportedAttributes(DocFlavor flavor, AttributeSet attributes) {
+        return null;
+    }
+
+    @Override
+    public ServiceUIFactory getServiceUIFactory() {
+        return null;
+    }
+    
+    @Override
+    public String toString() {
+        return "Simulated printer : " + name;
+    }
+    
+    /**
+     * A job of the simulated printer. Each job is printed once.
+     */
+    private class SimulatedPrintJob implements DocPrintJob {
+        
+        private final List<PrintJobListener> listeners = new CopyOnWriteArrayList<>();
+        
+        @Override
+        public PrintService getPrintService() {
+            return SimulatedPrintService.this;
+        }
+
+        @Override
+        public PrintJobAttributeSet getAttributes() {
+            return new HashPrintJobAttributeSet();
+        }
+
+        @Override
+        public void addPrintJobListener(PrintJobListener listener) {
+            if(listener != null){
+                listeners.add(listener);
+            }
+        }
+
+        @Override
+        public void removePrintJobListener(PrintJobListener listener) {
+            listeners.remove(listener);
+        }
+
+        @Override
+        public void addPrintJobAttributeListener(PrintJobAttributeListener listener, PrintJobAttributeSet attributes) {
+        }
+
+        @Override
+        public void removePrintJobAttributeListener(PrintJobAttributeListener listener) {
+        }
+
+        @Override
+        public void print(Doc doc, PrintRequestAttributeSet attributes) throws PrintException {
+            if(!isDocFlavorSupported(doc.getDocFlavor())){
+                throw new PrintException("Document flavor not supported by " + name + ": " + doc.getDocFlavor());
+            }
+            int pages;
+            try {
+                pages = consume(doc.getPrintData());
+            } catch (IOException | PrinterException ex) {
+                fire(PrintJobEvent.JOB_FAILED);
+                throw new PrintException(ex);
+            }
+            queue(this, pages);
+        }
+        
+        /**
+         * Reads the document data like a driver would.
+         * @return the number of pages.
+         */
+        private int consume(Object data) throws IOException, PrinterException{
+            if(data instanceof Pageable){
+                Pageable pageable = (Pageable) data;
+                int pages = pageable.getNumberOfPages();
+                for(int i = 0; i < pages; i++){
+                    draw(pageable.getPrintable(i), pageable.getPageFormat(i), i);
+                }
+                return Math.max(1, pages);
+            }
+            if(data instanceof Printable){
+                int pages = 0;
+                while(draw((Printable) data, new PageFormat(), pages)){
+                    pages++;
+                }
+                return Math.max(1, pages);
+            }
+            if(data instanceof InputStream){
+                byte[] buffer = new byte[8192];
+                try (InputStream in = (InputStream) data) {
+                    while(in.read(buffer) >= 0){
+                        // Discarded
+                    }
+                }
+            }
+            return 1;
+        }
+        
+        private boolean draw(Printable printable, PageFormat pf, int pageIndex) throws PrinterException{
+            double scale = DRAW_DPI / 72;
+            BufferedImage image = new BufferedImage((int) Math.max(1, Math.ceil(pf.getWidth() * scale)), (int) Math.max(1, Math.ceil(pf.getHeight() * scale)), BufferedImage.TYPE_BYTE_BINARY);
+            Graphics2D g = image.createGraphics();
+            try{
+                g.scale(scale, scale);
+                return printable.print(g, pf, pageIndex) == Printable.PAGE_EXISTS;
+            }
+            finally{
+                g.dispose();
+            }
+        }
+        
+        private void fire(int reason){
+            PrintJobEvent event = new PrintJobEvent(this, reason);
+            for(PrintJobListener listener : listeners){
+                switch(reason){
+                    case PrintJobEvent.DATA_TRANSFER_COMPLETE: listener.printDataTransferCompleted(event); break;
+                    case PrintJobEvent.JOB_COMPLETE: listener.printJobCompleted(event); break;
+                    case PrintJobEvent.JOB_FAILED: listener.printJobFailed(event); break;
+                    case PrintJobEvent.NO_MORE_EVENTS: listener.printJobNoMoreEvents(event); break;
+                    default: break;
+                }
+            }
+        }
+        
+    }
+    
+}
@@ -0,0 +1,116 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Networkers SRL.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package py.com.nw.htmlprinter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The compiled HTML templates known by the program.
+ * <p>
+ * Templates are loaded from the files specified in the configuration and can also be uploaded
+ * by the websocket clients. Both are compiled once and kept in memory. The templates are
+ * published as a read only map that is replaced as a whole, so a configuration reload removes
+ * the templates that are no longer configured without a window where the others are missing.
+ * @author abiliomp
+ */
+public class TemplateRegistry {
+    
+    private static final Logger LOG = LoggerFactory.getLogger(TemplateRegistry.class);
+    
+    private static volatile Map<String, HtmlTemplate> Templates = Collections.emptyMap();
+    
+    /**
+     * The templates uploaded by the clients, kept across configuration reloads. Guarded by the class lock.
+     */
+    private static final Map<String, HtmlTemplate> UPLOADED = new HashMap<>();
+    
+    private TemplateRegistry(){}
+    
+    /**
+     * Compiles the templates specified in the configuration and replaces the configured ones.
+     * Templates that can not be read or compiled are reported and keep their previous version,
+     * if any. The uploaded templates are kept, unless the configuration has the same id.
+     * @param templateFiles the template file paths by template id.
+     */
+    public static synchronized void Load(Map<String, String> templateFiles){
+        Map<String, HtmlTemplate> previous = Templates;
+        Map<String, HtmlTemplate> next = new HashMap<>(UPLOADED);
+        if(templateFiles != null){
+            for(Map.Entry<String, String> entry : templateFiles.entrySet()){
+                try {
+                    String source = new String(Files.readAllBytes(new File(entry.getValue()).toPath()), StandardCharsets.UTF_8);
+                    next.put(entry.getKey(), HtmlTemplate.Compile(source));
+                    UPLOADED.remove(entry.getKey());
+                } catch (IOException | IllegalArgumentException ex) {
+                    LOG.error("Template {} could not be loaded: {}", entry.getKey(), ex.getLocalizedMessage());
+                    if(previous.containsKey(entry.getKey())){
+                        next.put(entry.getKey(), previous.get(entry.getKey()));
+                    }
+                }
+            }
+        }
+        Templates = Collections.unmodifiableMap(next);
+    }
+    
+    /**
+     * Compiles and registers a template uploaded by a client, replacing any template with the same id.
+     * @param templateId the template id.
+     * @param source the template source.
+     * @throws IllegalArgumentException if the template has syntax errors.
+     */
+    public static synchronized void Register(String templateId, String source){
+        HtmlTemplate template = HtmlTemplate.Compile(source);
+        UPLOADED.put(templateId, template);
+        Map<String, HtmlTemplate> next = new HashMap<>(Templates);
+        next.put(templateId, template);
+        Templates = Collections.unmodifiableMap(next);
+    }
+    
+    /**
+     * Retrieves a compiled template.
+     * @param templateId the template id.
+     * @return the template, or null if there is no template with that id.
+     */
+    public static HtmlTemplate Get(String templateId){
+        return Templates.get(templateId);
+    }
+    
+    /**
+     * Retrieves all the compiled templates.
+     * @return a read only view of the templates.
+     */
+    public static Collection<HtmlTemplate> GetAll(){
+        return Templates.values();
+    }
+    
+}